@@ -10,6 +10,11 @@ public class ApiResponse {
     private Object data;
     private boolean more;
 
+    /**
+     * 下一页游标 用于加载更多
+     */
+    private String cursor;
+
     public ApiResponse(int code, String message, Object data) {
         this.code = code;
         this.message = message;
@@ -53,6 +58,14 @@ public class ApiResponse {
         this.more = more;
     }
 
+    public String getCursor() {
+        return cursor;
+    }
+
+    public void setCursor(String cursor) {
+        this.cursor = cursor;
+    }
+
     public static ApiResponse ofMessage(int code, String message) {
         return new ApiResponse(code, message, null);
     }
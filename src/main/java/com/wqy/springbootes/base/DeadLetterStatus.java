@@ -0,0 +1,29 @@
+package com.wqy.springbootes.base;
+
+/**
+ * 索引死信状态
+ * Created by wqy.
+ */
+public enum DeadLetterStatus {
+    PENDING(0), // 待处理
+    REPLAYED(1); // 已重放
+
+    private int value;
+
+    DeadLetterStatus(int value) {
+        this.value = value;
+    }
+
+    public int getValue() {
+        return value;
+    }
+
+    public static DeadLetterStatus of(int value) {
+        for (DeadLetterStatus status : DeadLetterStatus.values()) {
+            if (status.getValue() == value) {
+                return status;
+            }
+        }
+        return DeadLetterStatus.PENDING;
+    }
+}
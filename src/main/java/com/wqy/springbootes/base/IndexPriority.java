@@ -0,0 +1,20 @@
+package com.wqy.springbootes.base;
+
+/**
+ * 索引消息优先级 决定消息进入的索引通道
+ * Created by wqy.
+ */
+public enum IndexPriority {
+    HIGH(0), // 交互操作 如审核、编辑房源
+    LOW(1); // 批量任务 如对账、重建索引、死信重放
+
+    private int value;
+
+    IndexPriority(int value) {
+        this.value = value;
+    }
+
+    public int getValue() {
+        return value;
+    }
+}
@@ -0,0 +1,20 @@
+package com.wqy.springbootes.base;
+
+/**
+ * 索引发件箱状态
+ * Created by wqy.
+ */
+public enum OutboxStatus {
+    PENDING(0), // 待投递
+    DELIVERED(1); // 已投递
+
+    private int value;
+
+    OutboxStatus(int value) {
+        this.value = value;
+    }
+
+    public int getValue() {
+        return value;
+    }
+}
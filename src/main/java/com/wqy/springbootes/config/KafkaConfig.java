@@ -0,0 +1,110 @@
+package com.wqy.springbootes.config;
+
+import org.apache.kafka.clients.consumer.ConsumerConfig;
+import org.apache.kafka.clients.producer.ProducerConfig;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.kafka.KafkaProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.kafka.config.ConcurrentKafkaListenerContainerFactory;
+import org.springframework.kafka.core.DefaultKafkaConsumerFactory;
+import org.springframework.kafka.core.DefaultKafkaProducerFactory;
+import org.springframework.kafka.core.ProducerFactory;
+
+import java.util.Map;
+
+/**
+ * Kafka 生产及消费端配置
+ * Created by wqy.
+ */
+@Configuration
+@ConditionalOnProperty(name = "search.transport", havingValue = "kafka", matchIfMissing = true)
+public class KafkaConfig {
+
+    @Autowired
+    private KafkaProperties kafkaProperties;
+
+    @Value("${search.consumer.max-poll-records:500}")
+    private int maxPollRecords;
+
+    @Value("${search.consumer.concurrency:3}")
+    private int concurrency;
+
+    @Value("${search.lane.bulk.max-poll-records:100}")
+    private int bulkLaneMaxPollRecords;
+
+    @Value("${search.lane.bulk.concurrency:1}")
+    private int bulkLaneConcurrency;
+
+    @Value("${search.retry.max-poll-records:50}")
+    private int retryMaxPollRecords;
+
+    @Value("${search.retry.max-poll-interval-ms:360000}")
+    private int retryMaxPollIntervalMillis;
+
+    @Value("${search.producer.max-block-ms:1000}")
+    private int producerMaxBlockMillis;
+
+    /**
+     * 索引消息生产者 取元数据或缓冲区已满时send最多阻塞max.block.ms
+     * 默认60秒会卡住发布索引消息的业务线程, 缩短后Kafka不可用时很快失败并转入本地日志
+     * @return
+     */
+    @Bean
+    public ProducerFactory<Object, Object> kafkaProducerFactory() {
+        Map<String, Object> props = kafkaProperties.buildProducerProperties();
+        props.put(ProducerConfig.MAX_BLOCK_MS_CONFIG, producerMaxBlockMillis);
+        return new DefaultKafkaProducerFactory<>(props);
+    }
+
+    /**
+     * 索引消息批量消费容器 每次poll的消息整体交给监听器
+     * 消息以houseId为key 每个分区只由一个线程消费 同一房源的消息不会并发处理
+     * @return
+     */
+    @Bean
+    public ConcurrentKafkaListenerContainerFactory<String, String> batchKafkaListenerContainerFactory() {
+        Map<String, Object> props = kafkaProperties.buildConsumerProperties();
+        props.put(ConsumerConfig.MAX_POLL_RECORDS_CONFIG, maxPollRecords);
+
+        ConcurrentKafkaListenerContainerFactory<String, String> factory = new ConcurrentKafkaListenerContainerFactory<>();
+        factory.setConsumerFactory(new DefaultKafkaConsumerFactory<>(props));
+        factory.setBatchListener(true);
+        factory.setConcurrency(concurrency);
+        return factory;
+    }
+
+    /**
+     * 批量任务索引主题消费容器 与交互操作使用不同的消费线程, 每次poll的消息更少
+     * @return
+     */
+    @Bean
+    public ConcurrentKafkaListenerContainerFactory<String, String> bulkLaneKafkaListenerContainerFactory() {
+        Map<String, Object> props = kafkaProperties.buildConsumerProperties();
+        props.put(ConsumerConfig.MAX_POLL_RECORDS_CONFIG, bulkLaneMaxPollRecords);
+
+        ConcurrentKafkaListenerContainerFactory<String, String> factory = new ConcurrentKafkaListenerContainerFactory<>();
+        factory.setConsumerFactory(new DefaultKafkaConsumerFactory<>(props));
+        factory.setBatchListener(true);
+        factory.setConcurrency(bulkLaneConcurrency);
+        return factory;
+    }
+
+    /**
+     * 延迟重试主题消费容器 监听器会等待消息到期
+     * poll间隔上限需大于最长一级的重试延迟 否则会被踢出消费组
+     * @return
+     */
+    @Bean
+    public ConcurrentKafkaListenerContainerFactory<String, String> retryKafkaListenerContainerFactory() {
+        Map<String, Object> props = kafkaProperties.buildConsumerProperties();
+        props.put(ConsumerConfig.MAX_POLL_RECORDS_CONFIG, retryMaxPollRecords);
+        props.put(ConsumerConfig.MAX_POLL_INTERVAL_MS_CONFIG, retryMaxPollIntervalMillis);
+
+        ConcurrentKafkaListenerContainerFactory<String, String> factory = new ConcurrentKafkaListenerContainerFactory<>();
+        factory.setConsumerFactory(new DefaultKafkaConsumerFactory<>(props));
+        return factory;
+    }
+}
@@ -0,0 +1,27 @@
+package com.wqy.springbootes.config;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
+
+/**
+ * 定时任务线程池
+ * 默认调度器只有一个线程, 出队、积压检测、补全与区县计数刷新等任务会被耗时任务阻塞
+ * 对账与重建在各自的线程上执行 这里只需覆盖周期性的轻量任务
+ * Created by wqy.
+ */
+@Configuration
+public class SchedulingConfig {
+
+    @Value("${search.scheduler.pool-size:6}")
+    private int poolSize;
+
+    @Bean(destroyMethod = "shutdown")
+    public ThreadPoolTaskScheduler taskScheduler() {
+        ThreadPoolTaskScheduler scheduler = new ThreadPoolTaskScheduler();
+        scheduler.setPoolSize(poolSize);
+        scheduler.setThreadNamePrefix("search-scheduler-");
+        return scheduler;
+    }
+}
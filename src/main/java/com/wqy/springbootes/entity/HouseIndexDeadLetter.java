@@ -0,0 +1,113 @@
+package com.wqy.springbootes.entity;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.GeneratedValue;
+import javax.persistence.GenerationType;
+import javax.persistence.Id;
+import javax.persistence.Table;
+import java.util.Date;
+
+/**
+ * 重试耗尽的索引消息
+ * Created by wqy.
+ */
+@Entity
+@Table(name = "house_index_dead_letter")
+public class HouseIndexDeadLetter {
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(name = "house_id")
+    private Long houseId;
+
+    private String operation;
+
+    private int retry;
+
+    private String reason;
+
+    private int status;
+
+    @Column(name = "first_failed_time")
+    private Date firstFailedTime;
+
+    @Column(name = "create_time")
+    private Date createTime;
+
+    @Column(name = "replay_time")
+    private Date replayTime;
+
+    public Long getId() {
+        return id;
+    }
+
+    public void setId(Long id) {
+        this.id = id;
+    }
+
+    public Long getHouseId() {
+        return houseId;
+    }
+
+    public void setHouseId(Long houseId) {
+        this.houseId = houseId;
+    }
+
+    public String getOperation() {
+        return operation;
+    }
+
+    public void setOperation(String operation) {
+        this.operation = operation;
+    }
+
+    public int getRetry() {
+        return retry;
+    }
+
+    public void setRetry(int retry) {
+        this.retry = retry;
+    }
+
+    public String getReason() {
+        return reason;
+    }
+
+    public void setReason(String reason) {
+        this.reason = reason;
+    }
+
+    public int getStatus() {
+        return status;
+    }
+
+    public void setStatus(int status) {
+        this.status = status;
+    }
+
+    public Date getFirstFailedTime() {
+        return firstFailedTime;
+    }
+
+    public void setFirstFailedTime(Date firstFailedTime) {
+        this.firstFailedTime = firstFailedTime;
+    }
+
+    public Date getCreateTime() {
+        return createTime;
+    }
+
+    public void setCreateTime(Date createTime) {
+        this.createTime = createTime;
+    }
+
+    public Date getReplayTime() {
+        return replayTime;
+    }
+
+    public void setReplayTime(Date replayTime) {
+        this.replayTime = replayTime;
+    }
+}
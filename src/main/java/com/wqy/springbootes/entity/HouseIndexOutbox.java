@@ -0,0 +1,122 @@
+package com.wqy.springbootes.entity;
+
+import com.wqy.springbootes.base.IndexPriority;
+import com.wqy.springbootes.base.OutboxStatus;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.GeneratedValue;
+import javax.persistence.GenerationType;
+import javax.persistence.Id;
+import javax.persistence.Table;
+import java.util.Date;
+
+/**
+ * 索引消息发件箱 与房源变更在同一事务中写入
+ * Created by wqy.
+ */
+@Entity
+@Table(name = "house_index_outbox")
+public class HouseIndexOutbox {
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(name = "house_id")
+    private Long houseId;
+
+    private String operation;
+
+    /**
+     * 局部更新字段 json格式
+     */
+    private String fields;
+
+    /**
+     * 优先级 见IndexPriority
+     */
+    private int priority;
+
+    private int status;
+
+    @Column(name = "create_time")
+    private Date createTime;
+
+    @Column(name = "deliver_time")
+    private Date deliverTime;
+
+    public HouseIndexOutbox() {
+    }
+
+    public HouseIndexOutbox(Long houseId, String operation, IndexPriority priority) {
+        this.houseId = houseId;
+        this.operation = operation;
+        this.priority = priority.getValue();
+        this.status = OutboxStatus.PENDING.getValue();
+        this.createTime = new Date();
+    }
+
+    public Long getId() {
+        return id;
+    }
+
+    public void setId(Long id) {
+        this.id = id;
+    }
+
+    public Long getHouseId() {
+        return houseId;
+    }
+
+    public void setHouseId(Long houseId) {
+        this.houseId = houseId;
+    }
+
+    public String getOperation() {
+        return operation;
+    }
+
+    public void setOperation(String operation) {
+        this.operation = operation;
+    }
+
+    public String getFields() {
+        return fields;
+    }
+
+    public void setFields(String fields) {
+        this.fields = fields;
+    }
+
+    public int getPriority() {
+        return priority;
+    }
+
+    public void setPriority(int priority) {
+        this.priority = priority;
+    }
+
+    public int getStatus() {
+        return status;
+    }
+
+    public void setStatus(int status) {
+        this.status = status;
+    }
+
+    public Date getCreateTime() {
+        return createTime;
+    }
+
+    public void setCreateTime(Date createTime) {
+        this.createTime = createTime;
+    }
+
+    public Date getDeliverTime() {
+        return deliverTime;
+    }
+
+    public void setDeliverTime(Date deliverTime) {
+        this.deliverTime = deliverTime;
+    }
+}
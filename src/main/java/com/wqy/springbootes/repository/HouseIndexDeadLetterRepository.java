@@ -0,0 +1,33 @@
+package com.wqy.springbootes.repository;
+
+import com.wqy.springbootes.entity.HouseIndexDeadLetter;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.PagingAndSortingRepository;
+import org.springframework.data.repository.query.Param;
+
+import java.util.List;
+
+/**
+ * Created by wqy.
+ */
+public interface HouseIndexDeadLetterRepository extends PagingAndSortingRepository<HouseIndexDeadLetter, Long> {
+
+    Page<HouseIndexDeadLetter> findAllByStatus(int status, Pageable pageable);
+
+    List<HouseIndexDeadLetter> findAllByIdInAndStatus(List<Long> ids, int status);
+
+    long countByStatus(int status);
+
+    /**
+     * 按id递增遍历 上界之后新进入的死信不在本轮范围内
+     */
+    @Query("select letter from HouseIndexDeadLetter as letter where letter.status = :status " +
+            "and letter.id > :fromId and letter.id <= :toId order by letter.id")
+    List<HouseIndexDeadLetter> findRange(@Param(value = "status") int status, @Param(value = "fromId") Long fromId,
+                                         @Param(value = "toId") Long toId, Pageable pageable);
+
+    @Query("select max(letter.id) from HouseIndexDeadLetter as letter")
+    Long findMaxId();
+}
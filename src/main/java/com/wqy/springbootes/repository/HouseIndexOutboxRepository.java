@@ -0,0 +1,32 @@
+package com.wqy.springbootes.repository;
+
+import com.wqy.springbootes.entity.HouseIndexOutbox;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.CrudRepository;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Created by wqy.
+ */
+public interface HouseIndexOutboxRepository extends CrudRepository<HouseIndexOutbox, Long> {
+
+    List<HouseIndexOutbox> findAllByStatus(int status, Pageable pageable);
+
+    @Transactional
+    @Modifying
+    @Query("update HouseIndexOutbox as outbox set outbox.status = :status, outbox.deliverTime = :deliverTime " +
+            "where outbox.id in :ids")
+    void updateStatus(@Param(value = "ids") List<Long> ids, @Param(value = "status") int status,
+                      @Param(value = "deliverTime") Date deliverTime);
+
+    @Transactional
+    @Modifying
+    @Query("delete from HouseIndexOutbox as outbox where outbox.status = :status and outbox.deliverTime < :before")
+    int deleteDelivered(@Param(value = "status") int status, @Param(value = "before") Date before);
+}
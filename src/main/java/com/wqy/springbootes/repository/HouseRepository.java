@@ -1,6 +1,10 @@
 package com.wqy.springbootes.repository;
 
+import java.util.Date;
+import java.util.List;
+
 import com.wqy.springbootes.entity.House;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaSpecificationExecutor;
 import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
@@ -17,11 +21,27 @@ public interface HouseRepository extends PagingAndSortingRepository<House, Long>
     @Query("update House as house set house.cover = :cover where house.id = :id")
     void updateCover(@Param(value = "id") Long id, @Param(value = "cover") String cover);
 
+    /**
+     * 状态变化同时刷新更新时间 索引以更新时间作为外部版本号
+     */
     @Modifying
-    @Query("update House as house set house.status = :status where house.id = :id")
-    void updateStatus(@Param(value = "id") Long id, @Param(value = "status") int status);
+    @Query("update House as house set house.status = :status, house.lastUpdateTime = :lastUpdateTime where house.id = :id")
+    void updateStatus(@Param(value = "id") Long id, @Param(value = "status") int status,
+                      @Param(value = "lastUpdateTime") Date lastUpdateTime);
 
     @Modifying
     @Query("update House as house set house.watchTimes = house.watchTimes + 1 where house.id = :id")
     void updateWatchTimes(@Param(value = "id") Long houseId);
+
+    /**
+     * 按id递增分页遍历指定状态的房源
+     */
+    List<House> findAllByStatusAndIdGreaterThan(int status, Long id, Pageable pageable);
+
+    long countByStatus(int status);
+
+    /**
+     * 按id递增分页遍历指定更新时间范围内的房源
+     */
+    List<House> findAllByLastUpdateTimeBetweenAndIdGreaterThan(Date from, Date to, Long id, Pageable pageable);
 }
@@ -1,5 +1,6 @@
 package com.wqy.springbootes.repository;
 
+import java.util.Collection;
 import java.util.List;
 
 import com.wqy.springbootes.entity.SupportAddress;
@@ -22,4 +23,6 @@ public interface SupportAddressRepository extends CrudRepository<SupportAddress,
 
     List<SupportAddress> findAllByLevelAndBelongTo(String level, String belongTo);
 
+    List<SupportAddress> findAllByEnNameIn(Collection<String> enNames);
+
 }
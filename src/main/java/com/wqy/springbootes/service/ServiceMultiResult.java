@@ -10,6 +10,11 @@ public class ServiceMultiResult<T> {
     private long total;
     private List<T> result;
 
+    /**
+     * 下一页游标 已无后续结果或查询不支持游标时为null
+     */
+    private String cursor;
+
     public ServiceMultiResult(long total, List<T> result) {
         this.total = total;
         this.result = result;
@@ -31,6 +36,14 @@ public class ServiceMultiResult<T> {
         this.result = result;
     }
 
+    public String getCursor() {
+        return cursor;
+    }
+
+    public void setCursor(String cursor) {
+        this.cursor = cursor;
+    }
+
     public int getResultSize() {
         if (this.result == null) {
             return 0;
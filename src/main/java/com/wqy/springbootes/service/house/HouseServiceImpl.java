@@ -13,6 +13,7 @@ import javax.persistence.criteria.Root;
 import javax.validation.Valid;
 
 //import org.apache.kafka.common.security.auth.Login;
+import com.wqy.springbootes.service.search.HouseIndexKey;
 import com.wqy.springbootes.service.search.ISearchService;
 import com.wqy.springbootes.web.dto.*;
 import com.wqy.springbootes.web.form.MapSearch;
@@ -89,6 +90,11 @@ public class HouseServiceImpl implements IHouseService {
     @Autowired
     private ISearchService searchService;
 
+    /**
+     * 相同条件的并发列表及地图查询共享一次搜索及房源加载 结果只读
+     */
+    private final SingleFlight<ServiceMultiResult<HouseDTO>> queryFlight = new SingleFlight<>();
+
    // @Value("${qiniu.cdn.prefix}")
     private String cdnPrefix="cdnPrefix";
 
@@ -309,6 +315,7 @@ public class HouseServiceImpl implements IHouseService {
         }
 
         houseTagRepository.save(new HouseTag(houseId, tag));
+        updateTagIndex(house);
         return ServiceResult.success();
     }
 
@@ -326,9 +333,32 @@ public class HouseServiceImpl implements IHouseService {
         }
 
         houseTagRepository.delete(houseTag.getId());
+        updateTagIndex(house);
         return ServiceResult.success();
     }
 
+    /**
+     * 标签变化只局部更新索引中的标签字段
+     * 局部更新会推进文档的内部版本 同时推进lastUpdateTime, 使之后整体写入的外部版本不低于它
+     * @param house
+     */
+    private void updateTagIndex(House house) {
+        Date lastUpdateTime = house.getLastUpdateTime();
+        long now = System.currentTimeMillis();
+        house.setLastUpdateTime(new Date(lastUpdateTime == null ? now : Math.max(now, lastUpdateTime.getTime() + 1)));
+        houseRepository.save(house);
+        if (house.getStatus() != HouseStatus.PASSES.getValue()) {
+            return;
+        }
+        List<String> tags = new ArrayList<>();
+        houseTagRepository.findAllByHouseId(house.getId()).forEach(houseTag -> tags.add(houseTag.getName()));
+
+        Map<String, Object> fields = new HashMap<>();
+        fields.put(HouseIndexKey.TAGS, tags);
+        fields.put(HouseIndexKey.LAST_UPDATE_TIME, house.getLastUpdateTime());
+        searchService.update(house.getId(), fields);
+    }
+
     @Override
     @Transactional
     public ServiceResult updateStatus(Long id, int status) {
@@ -349,7 +379,7 @@ public class HouseServiceImpl implements IHouseService {
             return new ServiceResult(false, "已删除的资源不允许操作");
         }
 
-        houseRepository.updateStatus(id, status);
+        houseRepository.updateStatus(id, status, new Date());
 
         // 上架更新索引 其他情况都要删除索引
         if (status == HouseStatus.PASSES.getValue()) {
@@ -382,14 +412,31 @@ public class HouseServiceImpl implements IHouseService {
 
     @Override
     public ServiceMultiResult<HouseDTO> query(RentSearch rentSearch) {
+        return queryFlight.execute(queryKey(rentSearch), () -> doQuery(rentSearch));
+    }
 
+    /**
+     * 合并并发查询的key 包含所有影响查询结果的条件
+     */
+    private String queryKey(RentSearch rentSearch) {
+        return "query:" + rentSearch.getCityEnName() + ":" + rentSearch.getRegionEnName() + ":"
+                + rentSearch.getPriceBlock() + ":" + rentSearch.getAreaBlock() + ":" + rentSearch.getRoom() + ":"
+                + rentSearch.getDirection() + ":" + rentSearch.getRentWay() + ":" + rentSearch.getOrderBy() + ":"
+                + rentSearch.getOrderDirection() + ":" + rentSearch.getStart() + ":" + rentSearch.getSize() + ":"
+                + rentSearch.getCursor() + ":" + rentSearch.getKeywords();
+    }
+
+    private ServiceMultiResult<HouseDTO> doQuery(RentSearch rentSearch) {
         if (rentSearch.getKeywords() != null && !rentSearch.getKeywords().isEmpty()) {
             ServiceMultiResult<Long> serviceResult = searchService.query(rentSearch);
             if (serviceResult.getTotal() == 0) {
                 return new ServiceMultiResult<>(0, new ArrayList<>());
             }
 
-            return new ServiceMultiResult<>(serviceResult.getTotal(), wrapperHouseResult(serviceResult.getResult()));
+            ServiceMultiResult<HouseDTO> result = new ServiceMultiResult<>(serviceResult.getTotal(),
+                    wrapperHouseResult(serviceResult.getResult()));
+            result.setCursor(serviceResult.getCursor());
+            return result;
         }
         return simpleQuery(rentSearch);
 
@@ -397,25 +444,44 @@ public class HouseServiceImpl implements IHouseService {
 
     @Override
     public ServiceMultiResult<HouseDTO> wholeMapQuery(MapSearch mapSearch) {
+        String key = "whole:" + mapSearch.getCityEnName() + ":" + mapSearch.getOrderBy() + ":"
+                + mapSearch.getOrderDirection() + ":" + mapSearch.getStart() + ":" + mapSearch.getSize() + ":"
+                + mapSearch.getCursor();
+        return queryFlight.execute(key, () -> doWholeMapQuery(mapSearch));
+    }
+
+    private ServiceMultiResult<HouseDTO> doWholeMapQuery(MapSearch mapSearch) {
         ServiceMultiResult<Long> serviceMultiResult = searchService.mapQuery(mapSearch.getCityEnName(),mapSearch.getOrderBy(),
-                mapSearch.getOrderDirection(),mapSearch.getStart(),mapSearch.getSize());
+                mapSearch.getOrderDirection(),mapSearch.getStart(),mapSearch.getSize(),mapSearch.getCursor());
 
         if(serviceMultiResult.getTotal()==0){
             return new ServiceMultiResult<>(0,new ArrayList<>());
         }
         List<HouseDTO> houses = wrapperHouseResult(serviceMultiResult.getResult());
-        return new ServiceMultiResult<>(serviceMultiResult.getTotal(),houses);
+        ServiceMultiResult<HouseDTO> result = new ServiceMultiResult<>(serviceMultiResult.getTotal(),houses);
+        result.setCursor(serviceMultiResult.getCursor());
+        return result;
     }
 
     @Override
     public ServiceMultiResult<HouseDTO> boundMapQuery(MapSearch mapSearch) {
+        String key = "bound:" + mapSearch.getCityEnName() + ":" + mapSearch.getLeftLongitude() + ":"
+                + mapSearch.getLeftLatitude() + ":" + mapSearch.getRightLongitude() + ":"
+                + mapSearch.getRightLatitude() + ":" + mapSearch.getOrderBy() + ":" + mapSearch.getOrderDirection()
+                + ":" + mapSearch.getStart() + ":" + mapSearch.getSize() + ":" + mapSearch.getCursor();
+        return queryFlight.execute(key, () -> doBoundMapQuery(mapSearch));
+    }
+
+    private ServiceMultiResult<HouseDTO> doBoundMapQuery(MapSearch mapSearch) {
         ServiceMultiResult<Long> serviceMultiResult = searchService.mapQuery(mapSearch);
         if(serviceMultiResult.getTotal()==0){
             return new ServiceMultiResult<>(0,new ArrayList<>());
         }
 
         List<HouseDTO> houses = wrapperHouseResult(serviceMultiResult.getResult());
-        return new ServiceMultiResult<>(serviceMultiResult.getTotal(),houses);
+        ServiceMultiResult<HouseDTO> result = new ServiceMultiResult<>(serviceMultiResult.getTotal(),houses);
+        result.setCursor(serviceMultiResult.getCursor());
+        return result;
     }
 
    /* @Override
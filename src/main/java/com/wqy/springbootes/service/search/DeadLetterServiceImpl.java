@@ -0,0 +1,146 @@
+package com.wqy.springbootes.service.search;
+
+import com.google.common.util.concurrent.RateLimiter;
+import com.wqy.springbootes.base.DeadLetterStatus;
+import com.wqy.springbootes.base.IndexPriority;
+import com.wqy.springbootes.entity.HouseIndexDeadLetter;
+import com.wqy.springbootes.repository.HouseIndexDeadLetterRepository;
+import com.wqy.springbootes.service.ServiceMultiResult;
+import com.wqy.springbootes.service.ServiceResult;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Sort;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * 死信落库与重放
+ * 重放的消息以全新消息投递到批量任务索引通道 经由批量写入路径处理, 再次失败会重新进入死信
+ * Created by wqy.
+ */
+@Service
+public class DeadLetterServiceImpl implements IDeadLetterService {
+
+    private static final Logger logger = LoggerFactory.getLogger(DeadLetterServiceImpl.class);
+
+    private static final int REASON_MAX_LENGTH = 512;
+
+    private static final int REPLAY_PAGE_SIZE = 500;
+
+    /**
+     * 列表单页上限 DataTables选择"全部"时length为-1, 同样按此上限分页
+     */
+    private static final int LIST_MAX_PAGE_SIZE = 500;
+
+    @Autowired
+    private HouseIndexDeadLetterRepository deadLetterRepository;
+
+    @Autowired
+    private HouseIndexTransport indexTransport;
+
+    @Value("${search.dead-letter.replay-per-second:50}")
+    private double replayPerSecond;
+
+    private final ExecutorService replayExecutor = Executors.newSingleThreadExecutor();
+
+    private RateLimiter rateLimiter;
+
+    @PostConstruct
+    public void initRateLimiter() {
+        this.rateLimiter = RateLimiter.create(replayPerSecond);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        replayExecutor.shutdownNow();
+    }
+
+    @Override
+    public void record(HouseIndexMessage message) {
+        HouseIndexDeadLetter deadLetter = new HouseIndexDeadLetter();
+        deadLetter.setHouseId(message.getHouseId());
+        deadLetter.setOperation(message.getOperation());
+        deadLetter.setRetry(message.getRetry());
+        String reason = message.getReason();
+        if (reason != null && reason.length() > REASON_MAX_LENGTH) {
+            reason = reason.substring(0, REASON_MAX_LENGTH);
+        }
+        deadLetter.setReason(reason);
+        deadLetter.setStatus(DeadLetterStatus.PENDING.getValue());
+        Date now = new Date();
+        deadLetter.setFirstFailedTime(message.getFirstFailedAt() > 0 ? new Date(message.getFirstFailedAt()) : now);
+        deadLetter.setCreateTime(now);
+        deadLetterRepository.save(deadLetter);
+    }
+
+    @Override
+    public ServiceMultiResult<HouseIndexDeadLetter> list(int status, int start, int size) {
+        if (size < 1 || size > LIST_MAX_PAGE_SIZE) {
+            size = LIST_MAX_PAGE_SIZE;
+        }
+        Pageable pageable = new PageRequest(Math.max(start, 0) / size, size, new Sort(Sort.Direction.DESC, "id"));
+        Page<HouseIndexDeadLetter> page = deadLetterRepository.findAllByStatus(status, pageable);
+        return new ServiceMultiResult<>(page.getTotalElements(), page.getContent());
+    }
+
+    @Override
+    public ServiceResult<Long> replay(List<Long> ids) {
+        if (ids == null || ids.isEmpty()) {
+            Long maxId = deadLetterRepository.findMaxId();
+            if (maxId == null) {
+                return ServiceResult.of(0L);
+            }
+            long count = deadLetterRepository.countByStatus(DeadLetterStatus.PENDING.getValue());
+            replayExecutor.submit(() -> replayRange(maxId));
+            return ServiceResult.of(count);
+        }
+
+        List<HouseIndexDeadLetter> deadLetters = deadLetterRepository.findAllByIdInAndStatus(ids,
+                DeadLetterStatus.PENDING.getValue());
+        replayExecutor.submit(() -> deadLetters.forEach(this::replay));
+        return ServiceResult.of((long) deadLetters.size());
+    }
+
+    private void replayRange(Long maxId) {
+        Long lastId = 0L;
+        PageRequest pageRequest = new PageRequest(0, REPLAY_PAGE_SIZE);
+        while (!Thread.currentThread().isInterrupted()) {
+            List<HouseIndexDeadLetter> deadLetters = deadLetterRepository.findRange(
+                    DeadLetterStatus.PENDING.getValue(), lastId, maxId, pageRequest);
+            if (deadLetters.isEmpty()) {
+                break;
+            }
+            deadLetters.forEach(this::replay);
+            lastId = deadLetters.get(deadLetters.size() - 1).getId();
+        }
+        logger.info("Replay dead letters up to id {} finished", maxId);
+    }
+
+    private void replay(HouseIndexDeadLetter deadLetter) {
+        rateLimiter.acquire();
+        try {
+            // 局部更新的字段未落库 重放时整体重建
+            String operation = HouseIndexMessage.UPDATE.equals(deadLetter.getOperation())
+                    ? HouseIndexMessage.INDEX : deadLetter.getOperation();
+            HouseIndexMessage message = new HouseIndexMessage(deadLetter.getHouseId(), operation, 0);
+            message.setPriority(IndexPriority.LOW.getValue());
+            indexTransport.publish(message);
+            deadLetter.setStatus(DeadLetterStatus.REPLAYED.getValue());
+            deadLetter.setReplayTime(new Date());
+            deadLetterRepository.save(deadLetter);
+        } catch (Exception e) {
+            logger.error("Replay dead letter " + deadLetter.getId() + " failed", e);
+        }
+    }
+}
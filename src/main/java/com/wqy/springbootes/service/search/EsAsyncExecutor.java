@@ -0,0 +1,162 @@
+package com.wqy.springbootes.service.search;
+
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.ActionRequestBuilder;
+import org.elasticsearch.action.ActionResponse;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * ES异步调用 以ActionListener回调完成CompletableFuture, 不占用调用线程等待网络
+ * 同时进行中的请求数有上限 查询达到上限时短暂等待 超时则直接失败
+ * 查询与索引管道各用一组许可 索引时的批量分析不会挤占查询的并发
+ * 索引管道达到上限时请求排队 由完成的请求交出许可后依次发出, 不失败也不阻塞调用线程;
+ * 排队的数量受调用方限制: 消费端等待本批消息写入ES后才提交位点并拉取下一批
+ * Created by wqy.
+ */
+@Component
+public class EsAsyncExecutor {
+
+    @Value("${search.async.max-in-flight:64}")
+    private int maxInFlight;
+
+    @Value("${search.async.index-max-in-flight:8}")
+    private int indexMaxInFlight;
+
+    @Value("${search.async.acquire-timeout-ms:1000}")
+    private long acquireTimeoutMillis;
+
+    private Semaphore permits;
+
+    private Semaphore indexPermits;
+
+    /**
+     * 等待索引管道许可的请求 取到许可后发出
+     */
+    private final ConcurrentLinkedQueue<Runnable> pendingIndexing = new ConcurrentLinkedQueue<>();
+
+    @PostConstruct
+    public void initPermits() {
+        this.permits = new Semaphore(maxInFlight);
+        this.indexPermits = new Semaphore(indexMaxInFlight);
+    }
+
+    /**
+     * 查询请求
+     */
+    public <Response extends ActionResponse> CompletableFuture<Response> execute(
+            ActionRequestBuilder<?, Response, ?> requestBuilder) {
+        return execute(requestBuilder, permits, maxInFlight);
+    }
+
+    /**
+     * 索引管道中的请求 如写入前的分词分析 许可用尽时排队而不是失败
+     */
+    public <Response extends ActionResponse> CompletableFuture<Response> executeIndexing(
+            ActionRequestBuilder<?, Response, ?> requestBuilder) {
+        CompletableFuture<Response> future = new CompletableFuture<>();
+        if (indexPermits.tryAcquire()) {
+            send(requestBuilder, future, this::releaseIndexPermit);
+            return future;
+        }
+        pendingIndexing.add(() -> send(requestBuilder, future, this::releaseIndexPermit));
+        // 入队前持有许可的请求可能已全部完成 没有人再来取队列
+        runPendingIndexing();
+        return future;
+    }
+
+    private <Response extends ActionResponse> CompletableFuture<Response> execute(
+            ActionRequestBuilder<?, Response, ?> requestBuilder, Semaphore permits, int limit) {
+        CompletableFuture<Response> future = new CompletableFuture<>();
+        try {
+            if (!permits.tryAcquire(acquireTimeoutMillis, TimeUnit.MILLISECONDS)) {
+                future.completeExceptionally(new RejectedExecutionException(
+                        "Too many in-flight elasticsearch requests: " + limit));
+                return future;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            future.completeExceptionally(e);
+            return future;
+        }
+
+        send(requestBuilder, future, permits::release);
+        return future;
+    }
+
+    /**
+     * 已持有许可时发出请求 完成或发送失败时调用release
+     */
+    private <Response extends ActionResponse> void send(ActionRequestBuilder<?, Response, ?> requestBuilder,
+                                                        CompletableFuture<Response> future,
+                                                        Runnable release) {
+        try {
+            requestBuilder.execute(new ActionListener<Response>() {
+                @Override
+                public void onResponse(Response response) {
+                    release.run();
+                    future.complete(response);
+                }
+
+                @Override
+                public void onFailure(Throwable e) {
+                    release.run();
+                    future.completeExceptionally(e);
+                }
+            });
+        } catch (Exception e) {
+            release.run();
+            future.completeExceptionally(e);
+        }
+    }
+
+    /**
+     * 有排队的请求时直接把许可交给它 否则归还
+     */
+    private void releaseIndexPermit() {
+        Runnable next = pendingIndexing.poll();
+        if (next != null) {
+            next.run();
+            return;
+        }
+        indexPermits.release();
+        // 归还前入队的请求可能刚好错过许可
+        runPendingIndexing();
+    }
+
+    private void runPendingIndexing() {
+        while (!pendingIndexing.isEmpty() && indexPermits.tryAcquire()) {
+            Runnable next = pendingIndexing.poll();
+            if (next == null) {
+                indexPermits.release();
+                return;
+            }
+            next.run();
+        }
+    }
+
+    /**
+     * 同步等待结果 还原ES抛出的原始异常
+     * @param future
+     * @param <T>
+     * @return
+     */
+    public static <T> T await(CompletableFuture<T> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+    }
+}
@@ -0,0 +1,231 @@
+package com.wqy.springbootes.service.search;
+
+import org.elasticsearch.action.search.SearchRequestBuilder;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.client.transport.TransportClient;
+import org.elasticsearch.index.query.QueryBuilders;
+import org.elasticsearch.rest.RestStatus;
+import org.elasticsearch.search.aggregations.AggregationBuilders;
+import org.elasticsearch.search.aggregations.bucket.terms.Terms;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 各城市按区域、小区统计的房源数 每个城市一次区域+小区两级terms聚合, 结果保存在内存中
+ * 城市首次访问时加载; 写入成功的索引消息(包括经广播收到的其他实例的写入)将已加载的城市标记为脏, 由定时任务重新聚合,
+ * 超过最长时间未更新的城市也会重新聚合 广播丢失时计数最多滞后max-age-ms
+ * Created by wqy.
+ */
+@Component
+public class HouseDistrictCounts implements PublicMetrics {
+
+    private static final Logger logger = LoggerFactory.getLogger(HouseDistrictCounts.class);
+
+    @Autowired
+    private TransportClient esClient;
+
+    @Autowired
+    private EsAsyncExecutor esExecutor;
+
+    @Value("${search.district-count.enabled:true}")
+    private boolean enabled;
+
+    /**
+     * 写入成功后到可被搜索之间的延迟(索引刷新间隔) 在此之前开始的聚合可能看不到该写入
+     */
+    @Value("${search.district-count.visible-delay-ms:1000}")
+    private long visibleDelayMillis;
+
+    @Value("${search.district-count.max-age-ms:600000}")
+    private long maxAgeMillis;
+
+    @Value("${search.district-count.max-regions:100}")
+    private int maxRegions;
+
+    @Value("${search.district-count.max-districts:10000}")
+    private int maxDistricts;
+
+    private final ConcurrentMap<String, CityCounts> cities = new ConcurrentHashMap<>();
+
+    /**
+     * 城市到最近一次写入成功的时间
+     */
+    private final ConcurrentMap<String, Long> dirtyCities = new ConcurrentHashMap<>();
+
+    private final ConcurrentMap<String, Object> loadLocks = new ConcurrentHashMap<>();
+
+    private final AtomicLong loads = new AtomicLong();
+
+    private final AtomicLong loadFailures = new AtomicLong();
+
+    /**
+     * 查询小区房源数
+     * @param cityEnName
+     * @param regionEnName
+     * @param district
+     * @return 未启用或城市加载失败时返回null
+     */
+    public Long count(String cityEnName, String regionEnName, String district) {
+        if (!enabled) {
+            return null;
+        }
+        CityCounts counts = cities.get(cityEnName);
+        if (counts == null) {
+            // 同一城市只有一个线程加载 其余线程等待后直接读取
+            synchronized (loadLocks.computeIfAbsent(cityEnName, key -> new Object())) {
+                counts = cities.get(cityEnName);
+                if (counts == null) {
+                    counts = load(cityEnName);
+                }
+            }
+        }
+        return counts == null ? null : counts.get(regionEnName, district);
+    }
+
+    @EventListener
+    public void onIndexApplied(HouseIndexAppliedEvent event) {
+        long now = System.currentTimeMillis();
+        for (HouseIndexMessage message : event.getMessages()) {
+            if (HouseIndexMessage.UPDATE.equals(message.getOperation()) && !changesLocation(message)) {
+                continue;
+            }
+            if (message.getCityEnName() == null) {
+                cities.keySet().forEach(city -> dirtyCities.put(city, now));
+            } else if (loadLocks.containsKey(message.getCityEnName())) {
+                // 只标记已加载或正在加载的城市 从未访问的城市首次访问时直接聚合
+                dirtyCities.put(message.getCityEnName(), now);
+            }
+        }
+    }
+
+    /**
+     * 重新聚合有写入或已过期的城市 写入后尚未可见时保留脏标记 下一轮再次聚合
+     */
+    @Scheduled(fixedDelayString = "${search.district-count.refresh-interval-ms:5000}")
+    public void refresh() {
+        if (!enabled) {
+            return;
+        }
+        dirtyCities.keySet().retainAll(loadLocks.keySet());
+        for (String city : new ArrayList<>(cities.keySet())) {
+            Long markedAt = dirtyCities.get(city);
+            CityCounts counts = cities.get(city);
+            if (isStale(counts, markedAt) || System.currentTimeMillis() - counts.getLoadedAt() >= maxAgeMillis) {
+                counts = load(city);
+            }
+            if (markedAt != null && !isStale(counts, markedAt)) {
+                dirtyCities.remove(city, markedAt);
+            }
+        }
+    }
+
+    private boolean isStale(CityCounts counts, Long markedAt) {
+        return counts == null || (markedAt != null && counts.getLoadedAt() < markedAt + visibleDelayMillis);
+    }
+
+    private boolean changesLocation(HouseIndexMessage message) {
+        Map<String, Object> fields = message.getFields();
+        return fields == null || fields.containsKey(HouseIndexKey.CITY_EN_NAME)
+                || fields.containsKey(HouseIndexKey.REGION_EN_NAME) || fields.containsKey(HouseIndexKey.DISTRICT);
+    }
+
+    /**
+     * 一次聚合得到城市内所有小区的房源数 失败时保留原有结果
+     */
+    private CityCounts load(String cityEnName) {
+        long loadedAt = System.currentTimeMillis();
+        SearchRequestBuilder requestBuilder = esClient.prepareSearch(SearchServiceImpl.INDEX_ALIAS)
+                .setTypes(SearchServiceImpl.INDEX_TYPE)
+                .setQuery(QueryBuilders.boolQuery()
+                        .filter(QueryBuilders.termQuery(HouseIndexKey.CITY_EN_NAME, cityEnName)))
+                .addAggregation(AggregationBuilders.terms(HouseIndexKey.AGG_REGION)
+                        .field(HouseIndexKey.REGION_EN_NAME)
+                        .size(maxRegions)
+                        .subAggregation(AggregationBuilders.terms(HouseIndexKey.AGG_DISTRICT)
+                                .field(HouseIndexKey.DISTRICT)
+                                .size(maxDistricts)))
+                .setSize(0);
+
+        try {
+            SearchResponse response = EsAsyncExecutor.await(esExecutor.execute(requestBuilder));
+            if (response.status() != RestStatus.OK) {
+                logger.warn("Aggregate district counts status is not ok for city {}", cityEnName);
+                loadFailures.incrementAndGet();
+                return cities.get(cityEnName);
+            }
+
+            Map<String, Long> districtCounts = new HashMap<>();
+            Terms regions = response.getAggregations().get(HouseIndexKey.AGG_REGION);
+            for (Terms.Bucket region : regions.getBuckets()) {
+                Terms districts = region.getAggregations().get(HouseIndexKey.AGG_DISTRICT);
+                for (Terms.Bucket district : districts.getBuckets()) {
+                    districtCounts.put(CityCounts.key(region.getKeyAsString(), district.getKeyAsString()),
+                            district.getDocCount());
+                }
+            }
+
+            CityCounts counts = new CityCounts(loadedAt, districtCounts);
+            cities.put(cityEnName, counts);
+            loads.incrementAndGet();
+            return counts;
+        } catch (Exception e) {
+            logger.warn("Aggregate district counts failed for city " + cityEnName, e);
+            loadFailures.incrementAndGet();
+            return cities.get(cityEnName);
+        }
+    }
+
+    @Override
+    public Collection<Metric<?>> metrics() {
+        List<Metric<?>> metrics = new ArrayList<>();
+        metrics.add(new Metric<>("search.district-count.cities", cities.size()));
+        metrics.add(new Metric<>("search.district-count.dirty", dirtyCities.size()));
+        metrics.add(new Metric<>("search.district-count.loads", loads.get()));
+        metrics.add(new Metric<>("search.district-count.load-failures", loadFailures.get()));
+        return metrics;
+    }
+
+    /**
+     * 一个城市的聚合结果 不可变
+     */
+    private static class CityCounts {
+
+        private final long loadedAt;
+
+        private final Map<String, Long> counts;
+
+        CityCounts(long loadedAt, Map<String, Long> counts) {
+            this.loadedAt = loadedAt;
+            this.counts = counts;
+        }
+
+        static String key(String regionEnName, String district) {
+            return regionEnName + "|" + district;
+        }
+
+        long getLoadedAt() {
+            return loadedAt;
+        }
+
+        long get(String regionEnName, String district) {
+            Long count = counts.get(key(regionEnName, district));
+            return count == null ? 0 : count;
+        }
+    }
+}
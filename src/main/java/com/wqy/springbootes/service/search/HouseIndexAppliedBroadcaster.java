@@ -0,0 +1,225 @@
+package com.wqy.springbootes.service.search;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 把本实例写入成功的索引消息经Redis发布订阅转发到其他实例
+ * 消息只由消费到它的实例写入ES, 其他实例的搜索结果缓存、补全索引与小区房源数依赖该广播失效
+ * 发布订阅不保证送达(Redis不可用或订阅断开期间的广播会丢失) 各本地结构仍以自身的过期时间或定时重建作为兜底
+ * Created by wqy.
+ */
+@Component
+public class HouseIndexAppliedBroadcaster implements PublicMetrics {
+
+    private static final Logger logger = LoggerFactory.getLogger(HouseIndexAppliedBroadcaster.class);
+
+    @Autowired
+    private RedisTemplate<String, String> redisTemplate;
+
+    @Autowired
+    private RedisMessageListenerContainer listenerContainer;
+
+    @Autowired
+    private ApplicationEventPublisher eventPublisher;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Value("${search.applied-broadcast.enabled:true}")
+    private boolean enabled;
+
+    @Value("${search.applied-broadcast.channel:house_index:applied}")
+    private String channel;
+
+    /**
+     * 区分本实例发出的广播 收到时跳过
+     */
+    private final String instanceId = UUID.randomUUID().toString();
+
+    private final AtomicLong published = new AtomicLong();
+
+    private final AtomicLong received = new AtomicLong();
+
+    private final AtomicLong errors = new AtomicLong();
+
+    @PostConstruct
+    public void subscribe() {
+        if (enabled) {
+            listenerContainer.addMessageListener(this::onMessage, new ChannelTopic(channel));
+        }
+    }
+
+    @EventListener
+    public void onIndexApplied(HouseIndexAppliedEvent event) {
+        if (!enabled || event.isRemote()) {
+            return;
+        }
+        List<AppliedMessage> messages = new ArrayList<>();
+        for (HouseIndexMessage message : event.getMessages()) {
+            messages.add(AppliedMessage.of(message));
+        }
+        try {
+            redisTemplate.convertAndSend(channel,
+                    objectMapper.writeValueAsString(new Broadcast(instanceId, messages)));
+            published.incrementAndGet();
+        } catch (Exception e) {
+            errors.incrementAndGet();
+            logger.warn("Broadcast applied index messages failed: {}", e.getMessage());
+        }
+    }
+
+    private void onMessage(Message message, byte[] pattern) {
+        Broadcast broadcast;
+        try {
+            broadcast = objectMapper.readValue(new String(message.getBody(), StandardCharsets.UTF_8), Broadcast.class);
+        } catch (Exception e) {
+            errors.incrementAndGet();
+            logger.warn("Cannot parse applied index broadcast: {}", e.getMessage());
+            return;
+        }
+        if (instanceId.equals(broadcast.getInstanceId()) || broadcast.getMessages() == null) {
+            return;
+        }
+        received.incrementAndGet();
+
+        List<HouseIndexMessage> messages = new ArrayList<>();
+        broadcast.getMessages().forEach(applied -> messages.add(applied.toMessage()));
+        eventPublisher.publishEvent(new HouseIndexAppliedEvent(this, messages, true));
+    }
+
+    @Override
+    public Collection<Metric<?>> metrics() {
+        List<Metric<?>> metrics = new ArrayList<>();
+        metrics.add(new Metric<>("search.applied-broadcast.published", published.get()));
+        metrics.add(new Metric<>("search.applied-broadcast.received", received.get()));
+        metrics.add(new Metric<>("search.applied-broadcast.errors", errors.get()));
+        return metrics;
+    }
+
+    public static class Broadcast {
+        private String instanceId;
+        private List<AppliedMessage> messages;
+
+        public Broadcast() {
+        }
+
+        Broadcast(String instanceId, List<AppliedMessage> messages) {
+            this.instanceId = instanceId;
+            this.messages = messages;
+        }
+
+        public String getInstanceId() {
+            return instanceId;
+        }
+
+        public void setInstanceId(String instanceId) {
+            this.instanceId = instanceId;
+        }
+
+        public List<AppliedMessage> getMessages() {
+            return messages;
+        }
+
+        public void setMessages(List<AppliedMessage> messages) {
+            this.messages = messages;
+        }
+    }
+
+    /**
+     * 监听方需要的字段 局部更新只转发字段名
+     */
+    public static class AppliedMessage {
+        private Long houseId;
+        private String operation;
+        private String cityEnName;
+        private List<String> fieldNames;
+        private List<HouseSuggest> suggests;
+
+        static AppliedMessage of(HouseIndexMessage message) {
+            AppliedMessage applied = new AppliedMessage();
+            applied.setHouseId(message.getHouseId());
+            applied.setOperation(message.getOperation());
+            applied.setCityEnName(message.getCityEnName());
+            if (message.getFields() != null) {
+                applied.setFieldNames(new ArrayList<>(message.getFields().keySet()));
+            }
+            applied.setSuggests(message.getSuggests());
+            return applied;
+        }
+
+        HouseIndexMessage toMessage() {
+            HouseIndexMessage message = new HouseIndexMessage(houseId, operation, 0);
+            message.setCityEnName(cityEnName);
+            if (fieldNames != null) {
+                Map<String, Object> fields = new HashMap<>();
+                fieldNames.forEach(name -> fields.put(name, null));
+                message.setFields(fields);
+            }
+            message.setSuggests(suggests);
+            return message;
+        }
+
+        public Long getHouseId() {
+            return houseId;
+        }
+
+        public void setHouseId(Long houseId) {
+            this.houseId = houseId;
+        }
+
+        public String getOperation() {
+            return operation;
+        }
+
+        public void setOperation(String operation) {
+            this.operation = operation;
+        }
+
+        public String getCityEnName() {
+            return cityEnName;
+        }
+
+        public void setCityEnName(String cityEnName) {
+            this.cityEnName = cityEnName;
+        }
+
+        public List<String> getFieldNames() {
+            return fieldNames;
+        }
+
+        public void setFieldNames(List<String> fieldNames) {
+            this.fieldNames = fieldNames;
+        }
+
+        public List<HouseSuggest> getSuggests() {
+            return suggests;
+        }
+
+        public void setSuggests(List<HouseSuggest> suggests) {
+            this.suggests = suggests;
+        }
+    }
+}
@@ -0,0 +1,38 @@
+package com.wqy.springbootes.service.search;
+
+import org.springframework.context.ApplicationEvent;
+
+import java.util.List;
+
+/**
+ * 一批索引消息已写入ES 在批量写入的回调线程中同步发布, 监听方应只做轻量处理
+ * 本实例写入时发布一次, 并经HouseIndexAppliedBroadcaster转发到其他实例以remote事件再次发布
+ * Created by wqy.
+ */
+public class HouseIndexAppliedEvent extends ApplicationEvent {
+
+    private final List<HouseIndexMessage> messages;
+
+    /**
+     * 由其他实例写入 经广播收到
+     */
+    private final boolean remote;
+
+    public HouseIndexAppliedEvent(Object source, List<HouseIndexMessage> messages) {
+        this(source, messages, false);
+    }
+
+    public HouseIndexAppliedEvent(Object source, List<HouseIndexMessage> messages, boolean remote) {
+        super(source);
+        this.messages = messages;
+        this.remote = remote;
+    }
+
+    public List<HouseIndexMessage> getMessages() {
+        return messages;
+    }
+
+    public boolean isRemote() {
+        return remote;
+    }
+}
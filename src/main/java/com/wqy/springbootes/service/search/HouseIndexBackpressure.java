@@ -0,0 +1,74 @@
+package com.wqy.springbootes.service.search;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 索引消费背压
+ * ES过载时暂停接收索引消息 未处理的消息留在传输层, 而不是接收后写入失败再进入重试
+ * 集群恢复后自动重新开始接收
+ * Created by wqy.
+ */
+@Component
+public class HouseIndexBackpressure implements PublicMetrics {
+
+    private static final Logger logger = LoggerFactory.getLogger(HouseIndexBackpressure.class);
+
+    @Autowired
+    private HouseIndexHealth indexHealth;
+
+    @Autowired
+    private HouseIndexTransport indexTransport;
+
+    @Value("${search.backpressure.enabled:true}")
+    private boolean enabled;
+
+    private volatile boolean paused;
+
+    private final AtomicLong pauses = new AtomicLong();
+
+    private volatile long pausedAt;
+
+    @Scheduled(fixedDelayString = "${search.backpressure.check-interval-ms:1000}")
+    public void check() {
+        if (!enabled) {
+            return;
+        }
+        if (!paused && indexHealth.isOverloaded()) {
+            logger.warn("Elasticsearch is overloaded, pause receiving index messages");
+            indexTransport.pause();
+            paused = true;
+            pausedAt = System.currentTimeMillis();
+            pauses.incrementAndGet();
+        } else if (paused && indexHealth.isRecovered()) {
+            logger.info("Elasticsearch recovered after {} ms, resume receiving index messages",
+                    System.currentTimeMillis() - pausedAt);
+            indexTransport.resume();
+            paused = false;
+        }
+    }
+
+    public boolean isPaused() {
+        return paused;
+    }
+
+    @Override
+    public Collection<Metric<?>> metrics() {
+        List<Metric<?>> metrics = new ArrayList<>();
+        metrics.add(new Metric<>("search.backpressure.paused", paused ? 1 : 0));
+        metrics.add(new Metric<>("search.backpressure.pauses", pauses.get()));
+        indexTransport.backlog().forEach((lane, lag) -> metrics.add(new Metric<>("search.backpressure.lag." + lane, lag)));
+        return metrics;
+    }
+}
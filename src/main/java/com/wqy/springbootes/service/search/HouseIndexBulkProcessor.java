@@ -0,0 +1,196 @@
+package com.wqy.springbootes.service.search;
+
+import org.elasticsearch.ExceptionsHelper;
+import org.elasticsearch.action.ActionRequest;
+import org.elasticsearch.action.bulk.BulkItemResponse;
+import org.elasticsearch.action.bulk.BulkProcessor;
+import org.elasticsearch.action.bulk.BulkRequest;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.common.unit.ByteSizeUnit;
+import org.elasticsearch.common.unit.ByteSizeValue;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.common.util.concurrent.EsRejectedExecutionException;
+import org.elasticsearch.rest.RestStatus;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+/**
+ * 批量索引写入器
+ * 按条数、字节数、时间间隔三个阈值合并写请求, 每批写入成功的索引消息统一回调, 单条失败时回调对应的索引消息及失败原因以便重试
+ * 每批的耗时、字节数及被拒绝的条数上报给HouseIndexHealth
+ * Created by wqy.
+ */
+public class HouseIndexBulkProcessor implements BulkProcessor.Listener {
+
+    private static final Logger logger = LoggerFactory.getLogger(HouseIndexBulkProcessor.class);
+
+    private final BulkProcessor bulkProcessor;
+
+    private final Consumer<List<HouseIndexMessage>> successHandler;
+
+    private final BiConsumer<HouseIndexMessage, String> failureHandler;
+
+    private final HouseIndexHealth health;
+
+    /**
+     * 进行中的批次 executionId到开始时间及字节数
+     */
+    private final Map<Long, long[]> inFlight = new ConcurrentHashMap<>();
+
+    public HouseIndexBulkProcessor(Client client, int bulkActions, int bulkSizeMb, long flushIntervalMillis,
+                                   int concurrentRequests, HouseIndexHealth health,
+                                   Consumer<List<HouseIndexMessage>> successHandler,
+                                   BiConsumer<HouseIndexMessage, String> failureHandler) {
+        this.successHandler = successHandler;
+        this.failureHandler = failureHandler;
+        this.health = health;
+        this.bulkProcessor = BulkProcessor.builder(client, this)
+                .setBulkActions(bulkActions)
+                .setBulkSize(new ByteSizeValue(bulkSizeMb, ByteSizeUnit.MB))
+                .setFlushInterval(TimeValue.timeValueMillis(flushIntervalMillis))
+                .setConcurrentRequests(concurrentRequests)
+                .build();
+    }
+
+    /**
+     * 加入批量写请求 消息作为payload随请求携带 用于失败回溯
+     * @param request
+     * @param message
+     */
+    public void add(ActionRequest request, HouseIndexMessage message) {
+        message.setQueued(true);
+        bulkProcessor.add(request, message);
+    }
+
+    /**
+     * 立即提交当前累积的请求
+     */
+    public void flush() {
+        bulkProcessor.flush();
+    }
+
+    /**
+     * 提交剩余请求并等待进行中的批次完成
+     * @param timeoutSeconds
+     * @return 是否在超时前全部完成
+     */
+    public boolean close(long timeoutSeconds) {
+        try {
+            return bulkProcessor.awaitClose(timeoutSeconds, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            logger.warn("Interrupted while closing bulk processor", e);
+            return false;
+        }
+    }
+
+    @Override
+    public void beforeBulk(long executionId, BulkRequest request) {
+        logger.debug("Executing bulk [{}] with {} requests", executionId, request.numberOfActions());
+        long bytes = request.estimatedSizeInBytes();
+        inFlight.put(executionId, new long[]{System.currentTimeMillis(), bytes});
+        health.bulkStarted(bytes);
+    }
+
+    @Override
+    public void afterBulk(long executionId, BulkRequest request, BulkResponse response) {
+        int rejectedCount = 0;
+        for (BulkItemResponse item : response.getItems()) {
+            if (item.isFailed() && item.getFailure().getStatus() == RestStatus.TOO_MANY_REQUESTS) {
+                rejectedCount++;
+            }
+        }
+        finished(executionId, rejectedCount);
+
+        List<Object> payloads = request.payloads();
+        List<HouseIndexMessage> succeeded = new ArrayList<>();
+        for (BulkItemResponse item : response.getItems()) {
+            if (!item.isFailed()) {
+                HouseIndexMessage message = payload(payloads, item.getItemId());
+                if (message != null) {
+                    succeeded.add(message);
+                }
+                continue;
+            }
+            if (item.getFailure().getStatus() == RestStatus.CONFLICT && !"update".equals(item.getOpType())) {
+                // 带外部版本的写入/删除冲突说明索引中已是更新的版本 视为成功 局部更新的冲突需重试
+                logger.debug("Skip stale write for doc {}: {}", item.getId(), item.getFailureMessage());
+                continue;
+            }
+            if ("update".equals(item.getOpType()) && item.getFailure().getStatus() == RestStatus.NOT_FOUND) {
+                // 局部更新的文档不存在 说明房源未被索引 无需重试
+                logger.debug("Skip partial update for missing doc {}", item.getId());
+                continue;
+            }
+            logger.warn("Bulk item failed for doc {}: {}", item.getId(), item.getFailureMessage());
+            retry(payloads, item.getItemId(), item.getFailureMessage());
+        }
+        logger.debug("Bulk [{}] completed in {} ms", executionId, response.getTookInMillis());
+
+        if (!succeeded.isEmpty()) {
+            try {
+                successHandler.accept(succeeded);
+            } catch (Exception e) {
+                logger.error("Handle succeeded bulk [" + executionId + "] failed", e);
+            }
+        }
+        complete(payloads);
+    }
+
+    @Override
+    public void afterBulk(long executionId, BulkRequest request, Throwable failure) {
+        logger.error("Bulk [" + executionId + "] failed with " + request.numberOfActions() + " requests", failure);
+        boolean rejected = ExceptionsHelper.unwrapCause(failure) instanceof EsRejectedExecutionException;
+        finished(executionId, rejected ? request.numberOfActions() : 0);
+        List<Object> payloads = request.payloads();
+        for (int i = 0; i < request.numberOfActions(); i++) {
+            retry(payloads, i, failure.toString());
+        }
+        complete(payloads);
+    }
+
+    /**
+     * 成功或已转入重试的消息均视为处理完成
+     */
+    private void complete(List<Object> payloads) {
+        if (payloads == null) {
+            return;
+        }
+        for (Object payload : payloads) {
+            if (payload instanceof HouseIndexMessage) {
+                ((HouseIndexMessage) payload).markDone();
+            }
+        }
+    }
+
+    private void finished(long executionId, int rejectedCount) {
+        long[] started = inFlight.remove(executionId);
+        if (started != null) {
+            health.bulkFinished(started[1], System.currentTimeMillis() - started[0], rejectedCount);
+        }
+    }
+
+    private void retry(List<Object> payloads, int position, String reason) {
+        HouseIndexMessage message = payload(payloads, position);
+        if (message != null) {
+            failureHandler.accept(message, reason);
+        }
+    }
+
+    private HouseIndexMessage payload(List<Object> payloads, int position) {
+        if (payloads == null || position >= payloads.size()) {
+            return null;
+        }
+        Object payload = payloads.get(position);
+        return payload instanceof HouseIndexMessage ? (HouseIndexMessage) payload : null;
+    }
+}
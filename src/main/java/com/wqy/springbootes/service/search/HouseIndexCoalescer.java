@@ -0,0 +1,181 @@
+package com.wqy.springbootes.service.search;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * 索引消息合并窗口
+ * 窗口期内同一房源的消息合并为一条, 窗口结束后统一交给写入逻辑
+ * 窗口为0时只在单批消息内去重
+ * Created by wqy.
+ */
+@Component
+public class HouseIndexCoalescer implements PublicMetrics {
+
+    private static final Logger logger = LoggerFactory.getLogger(HouseIndexCoalescer.class);
+
+    @Value("${search.coalesce.window-ms:2000}")
+    private long windowMillis;
+
+    /**
+     * 待写入的消息 按最后一次到达的顺序排列
+     */
+    private final Map<Long, HouseIndexMessage> pending = new LinkedHashMap<>();
+
+    /**
+     * 保证取出与交付的顺序一致 多个线程同时交付时同一房源的消息不会乱序
+     */
+    private final Object drainLock = new Object();
+
+    private final AtomicLong received = new AtomicLong();
+
+    private final AtomicLong written = new AtomicLong();
+
+    private ScheduledExecutorService scheduler;
+
+    private Consumer<List<HouseIndexMessage>> handler;
+
+    /**
+     * 开始合并 窗口结束时把合并后的消息交给handler
+     * @param handler
+     */
+    public synchronized void start(Consumer<List<HouseIndexMessage>> handler) {
+        this.handler = handler;
+        if (windowMillis > 0) {
+            scheduler = Executors.newSingleThreadScheduledExecutor();
+            scheduler.scheduleWithFixedDelay(this::drain, windowMillis, windowMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * 停止合并并写入窗口内剩余的消息
+     */
+    public void stop() {
+        if (scheduler != null) {
+            scheduler.shutdown();
+            try {
+                scheduler.awaitTermination(windowMillis, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        drain();
+    }
+
+    public void submit(List<HouseIndexMessage> messages) {
+        received.addAndGet(messages.size());
+        synchronized (this) {
+            for (HouseIndexMessage message : messages) {
+                // 先移除再放入 使合并后的顺序跟随最后一次操作
+                HouseIndexMessage previous = pending.remove(message.getHouseId());
+                pending.put(message.getHouseId(), merge(previous, message));
+            }
+        }
+        if (windowMillis <= 0) {
+            drain();
+        }
+    }
+
+    /**
+     * 交付后未能执行的消息放回窗口 下一个窗口再交付
+     * 期间同一房源又有新消息到达时 放回的消息视为更早的操作参与合并
+     * @param messages
+     */
+    public void requeue(List<HouseIndexMessage> messages) {
+        synchronized (this) {
+            for (HouseIndexMessage message : messages) {
+                HouseIndexMessage newer = pending.remove(message.getHouseId());
+                pending.put(message.getHouseId(), newer == null ? message : merge(message, newer));
+            }
+        }
+        written.addAndGet(-messages.size());
+    }
+
+    /**
+     * INDEX与REMOVE覆盖之前的任何操作
+     * UPDATE不覆盖之前的INDEX/REMOVE: 整体重建会读取最新数据 删除后的局部更新没有意义; 连续的UPDATE合并字段
+     * 合并后的消息取两者中较高的优先级
+     */
+    private HouseIndexMessage merge(HouseIndexMessage previous, HouseIndexMessage current) {
+        if (previous == null) {
+            return current;
+        }
+        HouseIndexMessage merged = mergeOperation(previous, current);
+        merged.setPriority(Math.min(previous.getPriority(), current.getPriority()));
+        merged.absorb(merged == current ? previous : current);
+        return merged;
+    }
+
+    private HouseIndexMessage mergeOperation(HouseIndexMessage previous, HouseIndexMessage current) {
+        if (!HouseIndexMessage.UPDATE.equals(current.getOperation())) {
+            return current;
+        }
+        if (!HouseIndexMessage.UPDATE.equals(previous.getOperation())) {
+            return previous;
+        }
+
+        Map<String, Object> fields = new HashMap<>();
+        if (previous.getFields() != null) {
+            fields.putAll(previous.getFields());
+        }
+        if (current.getFields() != null) {
+            fields.putAll(current.getFields());
+        }
+        current.setFields(fields);
+        return current;
+    }
+
+    private void drain() {
+        synchronized (drainLock) {
+            List<HouseIndexMessage> messages;
+            synchronized (this) {
+                if (pending.isEmpty()) {
+                    return;
+                }
+                messages = new ArrayList<>(pending.values());
+                pending.clear();
+            }
+
+            written.addAndGet(messages.size());
+            try {
+                handler.accept(messages);
+            } catch (Exception e) {
+                // 调度线程抛出异常后不会再被调度 这里只记录
+                logger.error("Handle coalesced index messages failed", e);
+            }
+        }
+    }
+
+    @Override
+    public Collection<Metric<?>> metrics() {
+        long receivedCount = received.get();
+        long writtenCount = written.get();
+        int pendingCount;
+        synchronized (this) {
+            pendingCount = pending.size();
+        }
+
+        List<Metric<?>> metrics = new ArrayList<>();
+        metrics.add(new Metric<>("search.coalesce.received", receivedCount));
+        metrics.add(new Metric<>("search.coalesce.written", writtenCount));
+        metrics.add(new Metric<>("search.coalesce.saved", receivedCount - writtenCount - pendingCount));
+        metrics.add(new Metric<>("search.coalesce.pending", pendingCount));
+        return metrics;
+    }
+}
@@ -0,0 +1,102 @@
+package com.wqy.springbootes.service.search;
+
+import com.google.common.primitives.Longs;
+import com.wqy.springbootes.base.IndexPriority;
+import org.elasticsearch.action.bulk.BulkItemResponse;
+import org.elasticsearch.action.bulk.BulkRequestBuilder;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.action.delete.DeleteRequest;
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.client.transport.TransportClient;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.index.query.QueryBuilders;
+import org.elasticsearch.rest.RestStatus;
+import org.elasticsearch.search.SearchHit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * 一次性迁移: 将自动生成id的历史文档改写为以houseId为文档id, 并合并重复文档
+ * 启用方式 search.migration.doc-id.enabled=true, 迁移完成后应关闭
+ * Created by wqy.
+ */
+@Component
+@ConditionalOnProperty(name = "search.migration.doc-id.enabled", havingValue = "true")
+public class HouseIndexDocIdMigration implements ApplicationRunner {
+
+    private static final Logger logger = LoggerFactory.getLogger(HouseIndexDocIdMigration.class);
+
+    private static final TimeValue SCROLL_KEEP_ALIVE = TimeValue.timeValueMinutes(1);
+
+    private static final int BATCH_SIZE = 500;
+
+    @Autowired
+    private TransportClient esClient;
+
+    @Autowired
+    private ISearchService searchService;
+
+    @Override
+    public void run(ApplicationArguments args) {
+        logger.info("Start migrating house index documents to houseId as document id");
+
+        Set<Long> migratedHouseIds = new HashSet<>();
+        long scanned = 0;
+        SearchResponse response = esClient.prepareSearch(SearchServiceImpl.INDEX_ALIAS)
+                .setTypes(SearchServiceImpl.INDEX_TYPE)
+                .setQuery(QueryBuilders.matchAllQuery())
+                .setScroll(SCROLL_KEEP_ALIVE)
+                .setSize(BATCH_SIZE)
+                .get();
+
+        while (response.getHits().getHits().length > 0) {
+            BulkRequestBuilder bulkRequest = esClient.prepareBulk();
+            for (SearchHit hit : response.getHits()) {
+                scanned++;
+                Long houseId = Longs.tryParse(String.valueOf(hit.getSource().get(HouseIndexKey.HOUSE_ID)));
+                if (houseId == null) {
+                    logger.warn("Skip document {} without houseId", hit.getId());
+                    continue;
+                }
+
+                String docId = String.valueOf(houseId);
+                if (docId.equals(hit.getId())) {
+                    continue;
+                }
+
+                // create模式: 已存在的规范文档不会被重复文档覆盖
+                bulkRequest.add(new IndexRequest(SearchServiceImpl.INDEX_ALIAS, SearchServiceImpl.INDEX_TYPE, docId)
+                        .source(hit.getSourceRef()).create(true));
+                bulkRequest.add(new DeleteRequest(SearchServiceImpl.INDEX_ALIAS, SearchServiceImpl.INDEX_TYPE, hit.getId()));
+                migratedHouseIds.add(houseId);
+            }
+
+            if (bulkRequest.numberOfActions() > 0) {
+                BulkResponse bulkResponse = bulkRequest.get();
+                for (BulkItemResponse item : bulkResponse.getItems()) {
+                    if (item.isFailed() && item.getFailure().getStatus() != RestStatus.CONFLICT) {
+                        logger.warn("Migrate document {} failed: {}", item.getId(), item.getFailureMessage());
+                    }
+                }
+            }
+
+            response = esClient.prepareSearchScroll(response.getScrollId())
+                    .setScroll(SCROLL_KEEP_ALIVE)
+                    .get();
+        }
+        esClient.prepareClearScroll().addScrollId(response.getScrollId()).get();
+
+        // 重复文档中保留的不一定是最新版本 统一按数据库重建一次
+        migratedHouseIds.forEach(houseId -> searchService.index(houseId, IndexPriority.LOW));
+        logger.info("Migration finished, scanned {} documents, migrated {} houses", scanned, migratedHouseIds.size());
+    }
+}
@@ -0,0 +1,284 @@
+package com.wqy.springbootes.service.search;
+
+import com.google.common.base.Strings;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.wqy.springbootes.entity.House;
+import com.wqy.springbootes.entity.HouseDetail;
+import com.wqy.springbootes.entity.SupportAddress;
+import com.wqy.springbootes.repository.HouseDetailRepository;
+import com.wqy.springbootes.repository.HouseTagRepository;
+import com.wqy.springbootes.repository.SupportAddressRepository;
+import com.wqy.springbootes.service.ServiceResult;
+import com.wqy.springbootes.service.house.IAddressService;
+import org.elasticsearch.action.admin.indices.analyze.AnalyzeAction;
+import org.elasticsearch.action.admin.indices.analyze.AnalyzeRequestBuilder;
+import org.elasticsearch.action.admin.indices.analyze.AnalyzeResponse;
+import org.elasticsearch.client.transport.TransportClient;
+import org.modelmapper.ModelMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * 索引文档组装: 房源详情、地址、标签、地理位置及自动补全词
+ * 以批为单位加载关联数据 避免逐个房源查询
+ * Created by wqy.
+ */
+@Component
+public class HouseIndexEnricher {
+
+    private static final Logger logger = LoggerFactory.getLogger(HouseIndexEnricher.class);
+
+    @Autowired
+    private HouseDetailRepository houseDetailRepository;
+
+    @Autowired
+    private HouseTagRepository tagRepository;
+
+    @Autowired
+    private SupportAddressRepository supportAddressRepository;
+
+    @Autowired
+    private IAddressService addressService;
+
+    @Autowired
+    private ModelMapper modelMapper;
+
+    @Autowired
+    private TransportClient esClient;
+
+    @Autowired
+    private EsAsyncExecutor esExecutor;
+
+    @Value("${search.suggest.cache-size:10000}")
+    private int suggestCacheSize;
+
+    /**
+     * 分词文本摘要到补全词的缓存 文本未变化的房源重建索引时无需再次请求分词
+     */
+    private Cache<String, List<String>> suggestTermCache;
+
+    @PostConstruct
+    public void initSuggestTermCache() {
+        this.suggestTermCache = CacheBuilder.newBuilder()
+                .maximumSize(suggestCacheSize)
+                .build();
+    }
+
+    /**
+     * 批量组装索引文档 详情、标签、地址各一次IN查询
+     * @param houses
+     * @return houseId到组装结果的映射 顺序与入参一致
+     */
+    public Map<Long, ServiceResult<EnrichedHouse>> enrichHouses(List<House> houses) {
+        Map<Long, ServiceResult<EnrichedHouse>> result = new LinkedHashMap<>();
+        if (houses.isEmpty()) {
+            return result;
+        }
+
+        List<Long> houseIds = new ArrayList<>();
+        Set<String> addressNames = new HashSet<>();
+        houses.forEach(house -> {
+            houseIds.add(house.getId());
+            addressNames.add(house.getCityEnName());
+            addressNames.add(house.getRegionEnName());
+        });
+
+        Map<Long, HouseDetail> detailMap = new HashMap<>();
+        houseDetailRepository.findAllByHouseIdIn(houseIds)
+                .forEach(detail -> detailMap.put(detail.getHouseId(), detail));
+
+        Map<Long, List<String>> tagMap = new HashMap<>();
+        tagRepository.findAllByHouseIdIn(houseIds)
+                .forEach(tag -> tagMap.computeIfAbsent(tag.getHouseId(), key -> new ArrayList<>()).add(tag.getName()));
+
+        Map<String, SupportAddress> cityMap = new HashMap<>();
+        Map<String, SupportAddress> regionMap = new HashMap<>();
+        supportAddressRepository.findAllByEnNameIn(addressNames).forEach(address -> {
+            if (SupportAddress.Level.CITY.getValue().equals(address.getLevel())) {
+                cityMap.put(address.getEnName(), address);
+            } else if (SupportAddress.Level.REGION.getValue().equals(address.getLevel())) {
+                regionMap.put(address.getEnName(), address);
+            }
+        });
+
+        // 先完成组装 再并发发起补全词分词请求 最后统一等待
+        Map<Long, CompletableFuture<List<String>>> suggestTerms = new HashMap<>();
+        for (House house : houses) {
+            ServiceResult<EnrichedHouse> enriched = assemble(house, detailMap.get(house.getId()),
+                    cityMap.get(house.getCityEnName()), regionMap.get(house.getRegionEnName()),
+                    tagMap.get(house.getId()));
+            if (enriched.isSuccess()) {
+                suggestTerms.put(house.getId(), suggestTerms(enriched.getResult().getIndexTemplate()));
+            }
+            result.put(house.getId(), enriched);
+        }
+
+        suggestTerms.forEach((houseId, future) -> {
+            List<String> terms;
+            try {
+                terms = EsAsyncExecutor.await(future);
+            } catch (Exception e) {
+                logger.warn("Can not analyze token for house: " + houseId, e);
+                terms = null;
+            }
+            if (terms == null) {
+                result.put(houseId, new ServiceResult<>(false, "Can not analyze suggest for house: " + houseId));
+            } else {
+                updateSuggest(result.get(houseId).getResult().getIndexTemplate(), terms);
+            }
+        });
+        return result;
+    }
+
+    private ServiceResult<EnrichedHouse> assemble(House house, HouseDetail detail, SupportAddress city,
+                                                  SupportAddress region, List<String> tags) {
+        Long houseId = house.getId();
+        if (detail == null) {
+            return new ServiceResult<>(false, "House detail not found for house: " + houseId);
+        }
+        if (city == null || region == null) {
+            return new ServiceResult<>(false, "Address not found for house: " + houseId);
+        }
+
+        HouseIndexTemplate indexTemplate = new HouseIndexTemplate();
+        modelMapper.map(house, indexTemplate);
+        modelMapper.map(detail, indexTemplate);
+
+        String address = city.getEnName() + region.getCnName() + house.getStreet() + house.getDistrict()
+                + detail.getDetailAddress();
+        ServiceResult<BaiduMapLocation> location = addressService.getBaiduMapLocation(city.getCnName(), address);
+        if (!location.isSuccess()) {
+            return new ServiceResult<>(false, location.getMessage());
+        }
+        indexTemplate.setLocation(location.getResult());
+
+        if (tags != null && !tags.isEmpty()) {
+            indexTemplate.setTags(tags);
+        }
+
+        return ServiceResult.of(new EnrichedHouse(house, indexTemplate, city, region));
+    }
+
+    /**
+     * 获取补全词 缓存命中直接返回 否则异步请求ik_smart分词
+     */
+    private CompletableFuture<List<String>> suggestTerms(HouseIndexTemplate indexTemplate) {
+        String[] texts = {indexTemplate.getTitle(), indexTemplate.getLayoutDesc(), indexTemplate.getRoundService(),
+                indexTemplate.getDescription(), indexTemplate.getSubwayLineName(), indexTemplate.getSubwayStationName()};
+        String contentHash = hashContent(texts);
+
+        List<String> terms = suggestTermCache.getIfPresent(contentHash);
+        if (terms != null) {
+            return CompletableFuture.completedFuture(terms);
+        }
+        return analyze(texts).thenApply(analyzed -> {
+            if (analyzed != null) {
+                suggestTermCache.put(contentHash, analyzed);
+            }
+            return analyzed;
+        });
+    }
+
+    private void updateSuggest(HouseIndexTemplate indexTemplate, List<String> terms) {
+        List<HouseSuggest> suggests = new ArrayList<>();
+        for (String term : terms) {
+            HouseSuggest suggest = new HouseSuggest();
+            suggest.setInput(term);
+            suggests.add(suggest);
+        }
+        // 定制化小区自动补全
+        HouseSuggest suggest = new HouseSuggest();
+        suggest.setInput(indexTemplate.getDistrict());
+        suggests.add(suggest);
+
+        indexTemplate.setSuggest(suggests);
+    }
+
+    /**
+     * 调用ik_smart分词 返回过滤后的补全词 分词失败返回null
+     */
+    private CompletableFuture<List<String>> analyze(String[] texts) {
+        AnalyzeRequestBuilder requestBuilder= new AnalyzeRequestBuilder(this.esClient, AnalyzeAction.INSTANCE,
+                SearchServiceImpl.INDEX_ALIAS, texts);
+        requestBuilder.setAnalyzer("ik_smart");
+
+        return esExecutor.executeIndexing(requestBuilder).thenApply(this::filterTerms);
+    }
+
+    private List<String> filterTerms(AnalyzeResponse response) {
+        List<AnalyzeResponse.AnalyzeToken> tokens = response.getTokens();
+        if(tokens ==null){
+            return null;
+        }
+
+        List<String> terms = new ArrayList<>();
+        for (AnalyzeResponse.AnalyzeToken token : tokens) {
+            // 排除数字类型 & 小于2个字符的分词结果
+            if("<NUM>".equals(token.getType())||token.getTerm().length()<2){
+                continue;
+            }
+            terms.add(token.getTerm());
+        }
+        return terms;
+    }
+
+    private String hashContent(String[] texts) {
+        Hasher hasher = Hashing.sha1().newHasher();
+        for (String text : texts) {
+            // 先写入长度 避免内容在字段边界移动时得到相同的摘要
+            String value = Strings.nullToEmpty(text);
+            hasher.putInt(value.length()).putString(value, StandardCharsets.UTF_8);
+        }
+        return hasher.hash().toString();
+    }
+
+    /**
+     * 组装结果 附带城市与区域信息供LBS上传使用
+     */
+    public static class EnrichedHouse {
+        private final House house;
+        private final HouseIndexTemplate indexTemplate;
+        private final SupportAddress city;
+        private final SupportAddress region;
+
+        public EnrichedHouse(House house, HouseIndexTemplate indexTemplate, SupportAddress city, SupportAddress region) {
+            this.house = house;
+            this.indexTemplate = indexTemplate;
+            this.city = city;
+            this.region = region;
+        }
+
+        public House getHouse() {
+            return house;
+        }
+
+        public HouseIndexTemplate getIndexTemplate() {
+            return indexTemplate;
+        }
+
+        public SupportAddress getCity() {
+            return city;
+        }
+
+        public SupportAddress getRegion() {
+            return region;
+        }
+    }
+}
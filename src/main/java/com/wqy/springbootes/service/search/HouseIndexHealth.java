@@ -0,0 +1,109 @@
+package com.wqy.springbootes.service.search;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * ES写入健康状态
+ * 根据批量写入耗时、被拒绝的请求及进行中的批量字节数判断集群是否过载
+ * Created by wqy.
+ */
+@Component
+public class HouseIndexHealth implements PublicMetrics {
+
+    /**
+     * 耗时指数移动平均的权重
+     */
+    private static final double LATENCY_WEIGHT = 0.3;
+
+    @Value("${search.backpressure.max-latency-ms:2000}")
+    private long maxLatencyMillis;
+
+    @Value("${search.backpressure.max-in-flight-mb:20}")
+    private long maxInFlightMb;
+
+    @Value("${search.backpressure.rejection-cooldown-ms:10000}")
+    private long rejectionCooldownMillis;
+
+    private final AtomicLong inFlightBytes = new AtomicLong();
+
+    private final AtomicLong rejected = new AtomicLong();
+
+    private volatile double latencyMillis;
+
+    private volatile long lastBulkAt;
+
+    private volatile long lastRejectedAt;
+
+    public void bulkStarted(long bytes) {
+        inFlightBytes.addAndGet(bytes);
+    }
+
+    /**
+     * 批量请求结束 整批失败时同样调用
+     * @param bytes 请求字节数
+     * @param tookMillis 耗时
+     * @param rejectedCount 被ES拒绝执行的条数
+     */
+    public void bulkFinished(long bytes, long tookMillis, int rejectedCount) {
+        inFlightBytes.addAndGet(-bytes);
+        synchronized (this) {
+            latencyMillis = lastBulkAt == 0 ? tookMillis
+                    : LATENCY_WEIGHT * tookMillis + (1 - LATENCY_WEIGHT) * latencyMillis;
+        }
+        long now = System.currentTimeMillis();
+        lastBulkAt = now;
+        if (rejectedCount > 0) {
+            rejected.addAndGet(rejectedCount);
+            lastRejectedAt = now;
+        }
+    }
+
+    /**
+     * 任一指标超过阈值即视为过载
+     */
+    public boolean isOverloaded() {
+        return recentlyRejected()
+                || inFlightBytes.get() > maxInFlightBytes()
+                || (latencyFresh() && latencyMillis > maxLatencyMillis);
+    }
+
+    /**
+     * 恢复需要所有指标回落到阈值一半以下 避免在临界点反复暂停与恢复
+     * 暂停期间没有新的写入 耗时在冷却时间后不再参与判断
+     */
+    public boolean isRecovered() {
+        return !recentlyRejected()
+                && inFlightBytes.get() <= maxInFlightBytes() / 2
+                && (!latencyFresh() || latencyMillis <= maxLatencyMillis / 2.0);
+    }
+
+    private boolean recentlyRejected() {
+        return System.currentTimeMillis() - lastRejectedAt < rejectionCooldownMillis;
+    }
+
+    private boolean latencyFresh() {
+        return System.currentTimeMillis() - lastBulkAt < rejectionCooldownMillis;
+    }
+
+    private long maxInFlightBytes() {
+        return maxInFlightMb * 1024 * 1024;
+    }
+
+    @Override
+    public Collection<Metric<?>> metrics() {
+        List<Metric<?>> metrics = new ArrayList<>();
+        metrics.add(new Metric<>("search.es.bulk.latency-ms", Math.round(latencyMillis)));
+        metrics.add(new Metric<>("search.es.bulk.in-flight-bytes", inFlightBytes.get()));
+        metrics.add(new Metric<>("search.es.bulk.rejected", rejected.get()));
+        metrics.add(new Metric<>("search.es.overloaded", isOverloaded() ? 1 : 0));
+        return metrics;
+    }
+}
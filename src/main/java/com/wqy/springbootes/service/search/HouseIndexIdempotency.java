@@ -0,0 +1,136 @@
+package com.wqy.springbootes.service.search;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.serializer.RedisSerializer;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 索引消息幂等记录
+ * 以 房源id + 操作 + 房源更新时间 为key记录已写入ES的事件, 重复投递的消息跳过地理编码、LBS上传及ES写入
+ * Redis不可用时按未处理对待 不影响索引写入
+ * Created by wqy.
+ */
+@Component
+public class HouseIndexIdempotency implements PublicMetrics {
+
+    private static final Logger logger = LoggerFactory.getLogger(HouseIndexIdempotency.class);
+
+    private static final String KEY_PREFIX = "house_index:applied:";
+
+    private static final String APPLIED = "1";
+
+    @Autowired
+    private RedisTemplate<String, String> redisTemplate;
+
+    @Value("${search.idempotency.enabled:true}")
+    private boolean enabled;
+
+    @Value("${search.idempotency.ttl-hours:24}")
+    private long ttlHours;
+
+    private final AtomicLong checked = new AtomicLong();
+
+    private final AtomicLong skipped = new AtomicLong();
+
+    private final AtomicLong errors = new AtomicLong();
+
+    /**
+     * 批量查询已处理的房源
+     * @param operation
+     * @param versions houseId到房源更新时间
+     * @return 已处理过相同版本的houseId
+     */
+    public Set<Long> findApplied(String operation, Map<Long, Long> versions) {
+        Set<Long> applied = new HashSet<>();
+        if (!enabled || versions.isEmpty()) {
+            return applied;
+        }
+
+        List<Long> houseIds = new ArrayList<>(versions.keySet());
+        List<String> keys = new ArrayList<>();
+        houseIds.forEach(houseId -> keys.add(key(houseId, operation, versions.get(houseId))));
+        checked.addAndGet(keys.size());
+        try {
+            List<String> values = redisTemplate.opsForValue().multiGet(keys);
+            for (int i = 0; i < houseIds.size(); i++) {
+                if (values != null && APPLIED.equals(values.get(i))) {
+                    applied.add(houseIds.get(i));
+                }
+            }
+        } catch (Exception e) {
+            errors.incrementAndGet();
+            logger.warn("Check index idempotency failed", e);
+        }
+        skipped.addAndGet(applied.size());
+        return applied;
+    }
+
+    public boolean isApplied(Long houseId, String operation, long version) {
+        Map<Long, Long> versions = new HashMap<>();
+        versions.put(houseId, version);
+        return !findApplied(operation, versions).isEmpty();
+    }
+
+    /**
+     * 记录写入成功的消息 局部更新与未设置版本的消息不记录
+     * @param messages
+     */
+    public void markApplied(List<HouseIndexMessage> messages) {
+        if (!enabled) {
+            return;
+        }
+        List<String> keys = new ArrayList<>();
+        for (HouseIndexMessage message : messages) {
+            if (HouseIndexMessage.UPDATE.equals(message.getOperation()) || message.getVersion() < 0) {
+                continue;
+            }
+            keys.add(key(message.getHouseId(), message.getOperation(), message.getVersion()));
+        }
+        if (keys.isEmpty()) {
+            return;
+        }
+
+        long ttlSeconds = TimeUnit.HOURS.toSeconds(ttlHours);
+        RedisSerializer<String> serializer = redisTemplate.getStringSerializer();
+        byte[] value = serializer.serialize(APPLIED);
+        try {
+            redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                keys.forEach(key -> connection.setEx(serializer.serialize(key), ttlSeconds, value));
+                return null;
+            });
+        } catch (Exception e) {
+            errors.incrementAndGet();
+            logger.warn("Mark index idempotency failed", e);
+        }
+    }
+
+    private String key(Long houseId, String operation, long version) {
+        return KEY_PREFIX + houseId + ":" + operation + ":" + version;
+    }
+
+    @Override
+    public Collection<Metric<?>> metrics() {
+        List<Metric<?>> metrics = new ArrayList<>();
+        metrics.add(new Metric<>("search.idempotency.checked", checked.get()));
+        metrics.add(new Metric<>("search.idempotency.skipped", skipped.get()));
+        metrics.add(new Metric<>("search.idempotency.errors", errors.get()));
+        return metrics;
+    }
+}
@@ -0,0 +1,319 @@
+package com.wqy.springbootes.service.search;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * 本地追加写日志 Kafka不可用时暂存待发送的索引消息
+ * 按固定大小分段并以内存映射方式写入, 每条记录为 长度 + CRC32 + 内容, 先写内容后写长度, 写了一半的记录不会被读到
+ * 读取位置定期写入checkpoint文件 已读完的分段直接删除
+ * Created by wqy.
+ */
+public class HouseIndexJournal {
+
+    private static final Logger logger = LoggerFactory.getLogger(HouseIndexJournal.class);
+
+    private static final String SEGMENT_SUFFIX = ".journal";
+
+    private static final String CHECKPOINT_FILE = "checkpoint";
+
+    /**
+     * 记录头 4字节长度 + 4字节CRC32
+     */
+    private static final int HEADER_SIZE = 8;
+
+    /**
+     * 每读取多少条记录写一次checkpoint 崩溃后最多重复发送这么多条
+     */
+    private static final int CHECKPOINT_INTERVAL = 100;
+
+    private final Path directory;
+
+    private final int segmentBytes;
+
+    private long writeSegment;
+
+    private MappedByteBuffer writeBuffer;
+
+    private long readSegment;
+
+    private int readPosition;
+
+    private MappedByteBuffer readBuffer;
+
+    private int uncheckpointed;
+
+    private long appended;
+
+    private long drained;
+
+    private long corrupted;
+
+    public HouseIndexJournal(Path directory, int segmentBytes) throws IOException {
+        this.directory = directory;
+        this.segmentBytes = segmentBytes;
+        Files.createDirectories(directory);
+
+        List<Long> segments = listSegments();
+        if (segments.isEmpty()) {
+            writeSegment = 0;
+            writeBuffer = map(writeSegment);
+        } else {
+            writeSegment = segments.get(segments.size() - 1);
+            writeBuffer = map(writeSegment);
+            recoverWritePosition();
+        }
+
+        readSegment = segments.isEmpty() ? writeSegment : segments.get(0);
+        readPosition = 0;
+        long[] checkpoint = readCheckpoint();
+        if (checkpoint != null && checkpoint[0] >= readSegment && checkpoint[0] <= writeSegment) {
+            readSegment = checkpoint[0];
+            readPosition = (int) checkpoint[1];
+        }
+        for (Long segment : segments) {
+            if (segment < readSegment) {
+                Files.deleteIfExists(segmentPath(segment));
+            }
+        }
+    }
+
+    /**
+     * 追加一条记录并刷盘
+     * @param topic
+     * @param key
+     * @param content
+     * @throws IOException 记录超过分段大小或写入失败
+     */
+    public synchronized void append(String topic, String key, String content) throws IOException {
+        byte[] payload = (topic + "\n" + key + "\n" + content).getBytes(StandardCharsets.UTF_8);
+        int size = HEADER_SIZE + payload.length;
+        if (size > segmentBytes) {
+            throw new IOException("Journal record of " + payload.length + " bytes exceeds segment size");
+        }
+        if (writeBuffer.remaining() < size) {
+            rotate();
+        }
+
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        int position = writeBuffer.position();
+        ByteBuffer target = writeBuffer.duplicate();
+        target.position(position + HEADER_SIZE);
+        target.put(payload);
+        writeBuffer.putInt(position + 4, (int) crc.getValue());
+        writeBuffer.putInt(position, payload.length);
+        writeBuffer.position(position + size);
+        writeBuffer.force();
+        appended++;
+    }
+
+    /**
+     * 读取下一条未确认的记录 不移动读取位置
+     * @return 没有待发送记录时返回null
+     */
+    public synchronized Record peek() throws IOException {
+        while (true) {
+            if (readBuffer == null) {
+                readBuffer = map(readSegment);
+            }
+            int limit = readSegment == writeSegment ? writeBuffer.position() : segmentBytes;
+            if (readPosition + HEADER_SIZE <= limit) {
+                int length = readBuffer.getInt(readPosition);
+                if (length > 0 && readPosition + HEADER_SIZE + length <= limit) {
+                    byte[] payload = new byte[length];
+                    ByteBuffer source = readBuffer.duplicate();
+                    source.position(readPosition + HEADER_SIZE);
+                    source.get(payload);
+
+                    CRC32 crc = new CRC32();
+                    crc.update(payload);
+                    if ((int) crc.getValue() == readBuffer.getInt(readPosition + 4)) {
+                        return new Record(payload, HEADER_SIZE + length);
+                    }
+                    corrupted++;
+                    logger.error("Corrupted journal record in segment {} at {}, skip the rest of segment",
+                            readSegment, readPosition);
+                }
+            }
+
+            if (readSegment == writeSegment) {
+                // 当前写入分段已读完 或其中有损坏的记录被跳过
+                readPosition = limit;
+                if (uncheckpointed > 0) {
+                    writeCheckpoint();
+                }
+                return null;
+            }
+
+            // 已读完的分段
+            long finished = readSegment;
+            readSegment++;
+            readPosition = 0;
+            readBuffer = null;
+            writeCheckpoint();
+            Files.deleteIfExists(segmentPath(finished));
+        }
+    }
+
+    /**
+     * 确认peek返回的记录已发送
+     * @param record
+     */
+    public synchronized void commit(Record record) throws IOException {
+        readPosition += record.size;
+        drained++;
+        if (++uncheckpointed >= CHECKPOINT_INTERVAL) {
+            writeCheckpoint();
+        }
+    }
+
+    public synchronized boolean hasPending() {
+        return readSegment != writeSegment || readPosition < writeBuffer.position();
+    }
+
+    public synchronized long getAppended() {
+        return appended;
+    }
+
+    public synchronized long getDrained() {
+        return drained;
+    }
+
+    public synchronized long getCorrupted() {
+        return corrupted;
+    }
+
+    public synchronized long getSegments() {
+        return writeSegment - readSegment + 1;
+    }
+
+    private void rotate() throws IOException {
+        writeBuffer.force();
+        writeSegment++;
+        writeBuffer = map(writeSegment);
+    }
+
+    /**
+     * 启动时扫描最后一个分段 定位到最后一条完整记录之后 并清除之后的残留数据
+     */
+    private void recoverWritePosition() {
+        int position = 0;
+        while (position + HEADER_SIZE <= segmentBytes) {
+            int length = writeBuffer.getInt(position);
+            if (length <= 0 || position + HEADER_SIZE + length > segmentBytes) {
+                break;
+            }
+            byte[] payload = new byte[length];
+            ByteBuffer source = writeBuffer.duplicate();
+            source.position(position + HEADER_SIZE);
+            source.get(payload);
+            CRC32 crc = new CRC32();
+            crc.update(payload);
+            if ((int) crc.getValue() != writeBuffer.getInt(position + 4)) {
+                logger.warn("Truncate torn journal record in segment {} at {}", writeSegment, position);
+                break;
+            }
+            position += HEADER_SIZE + length;
+        }
+
+        for (int i = position; i < segmentBytes; i++) {
+            writeBuffer.put(i, (byte) 0);
+        }
+        writeBuffer.position(position);
+        writeBuffer.force();
+    }
+
+    private MappedByteBuffer map(long segment) throws IOException {
+        try (FileChannel channel = FileChannel.open(segmentPath(segment), StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            return channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentBytes);
+        }
+    }
+
+    private List<Long> listSegments() throws IOException {
+        List<Long> segments = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*" + SEGMENT_SUFFIX)) {
+            for (Path path : stream) {
+                String name = path.getFileName().toString();
+                segments.add(Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length())));
+            }
+        }
+        Collections.sort(segments);
+        return segments;
+    }
+
+    private Path segmentPath(long segment) {
+        return directory.resolve(String.format("%020d", segment) + SEGMENT_SUFFIX);
+    }
+
+    private long[] readCheckpoint() {
+        Path path = directory.resolve(CHECKPOINT_FILE);
+        if (!Files.exists(path)) {
+            return null;
+        }
+        try {
+            String[] parts = new String(Files.readAllBytes(path), StandardCharsets.UTF_8).trim().split(" ");
+            return new long[]{Long.parseLong(parts[0]), Long.parseLong(parts[1])};
+        } catch (IOException | RuntimeException e) {
+            logger.warn("Invalid journal checkpoint, read from the first segment", e);
+            return null;
+        }
+    }
+
+    /**
+     * 先写临时文件再原子替换 崩溃时checkpoint不会只写了一半
+     */
+    private void writeCheckpoint() throws IOException {
+        Path temp = directory.resolve(CHECKPOINT_FILE + ".tmp");
+        Files.write(temp, (readSegment + " " + readPosition).getBytes(StandardCharsets.UTF_8));
+        Files.move(temp, directory.resolve(CHECKPOINT_FILE), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+        uncheckpointed = 0;
+    }
+
+    /**
+     * 日志记录 内容为 主题、key、消息json 以换行分隔
+     */
+    public static class Record {
+        private final String topic;
+        private final String key;
+        private final String content;
+        private final int size;
+
+        private Record(byte[] payload, int size) {
+            String[] parts = new String(payload, StandardCharsets.UTF_8).split("\n", 3);
+            this.topic = parts[0];
+            this.key = parts[1];
+            this.content = parts[2];
+            this.size = size;
+        }
+
+        public String getTopic() {
+            return topic;
+        }
+
+        public String getKey() {
+            return key;
+        }
+
+        public String getContent() {
+            return content;
+        }
+    }
+}
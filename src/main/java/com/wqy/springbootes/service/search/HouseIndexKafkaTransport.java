@@ -0,0 +1,222 @@
+package com.wqy.springbootes.service.search;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.wqy.springbootes.base.IndexPriority;
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerConfig;
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.common.PartitionInfo;
+import org.apache.kafka.common.TopicPartition;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.kafka.KafkaProperties;
+import org.springframework.kafka.annotation.KafkaListener;
+import org.springframework.kafka.config.KafkaListenerEndpointRegistry;
+import org.springframework.kafka.core.DefaultKafkaConsumerFactory;
+import org.springframework.kafka.listener.AbstractMessageListenerContainer;
+import org.springframework.kafka.listener.MessageListenerContainer;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.util.concurrent.ListenableFuture;
+
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * 基于Kafka的索引消息传输
+ * 交互操作与批量任务分别使用各自的主题与消费容器, 发送及重试由HouseIndexProducer完成
+ * Created by wqy.
+ */
+@Component
+@ConditionalOnProperty(name = "search.transport", havingValue = "kafka", matchIfMissing = true)
+public class HouseIndexKafkaTransport implements HouseIndexTransport {
+
+    private static final Logger logger = LoggerFactory.getLogger(HouseIndexKafkaTransport.class);
+
+    private static final List<String> INDEX_TOPICS = Arrays.asList(
+            HouseIndexProducer.INDEX_TOPIC, HouseIndexProducer.BULK_INDEX_TOPIC);
+
+    @Autowired
+    private HouseIndexProducer indexProducer;
+
+    @Autowired
+    private HouseIndexMessageHandler messageHandler;
+
+    @Autowired
+    private IDeadLetterService deadLetterService;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Autowired
+    private KafkaListenerEndpointRegistry listenerRegistry;
+
+    @Autowired
+    private KafkaProperties kafkaProperties;
+
+    @Value("${search.transport.kafka.ack-timeout-ms:30000}")
+    private long ackTimeoutMillis;
+
+    private final Map<String, Long> lags = new ConcurrentHashMap<>();
+
+    /**
+     * 只用于查询位点的消费者 不订阅任何主题 仅在调度线程中使用
+     */
+    private Consumer<String, String> offsetConsumer;
+
+    @KafkaListener(topics = HouseIndexProducer.INDEX_TOPIC, containerFactory = "batchKafkaListenerContainerFactory")
+    private void handleMessages(List<String> contents) {
+        awaitHandled(messageHandler.handle(parse(contents), IndexPriority.HIGH));
+    }
+
+    @KafkaListener(topics = HouseIndexProducer.BULK_INDEX_TOPIC,
+            containerFactory = "bulkLaneKafkaListenerContainerFactory")
+    private void handleBulkMessages(List<String> contents) {
+        awaitHandled(messageHandler.handle(parse(contents), IndexPriority.LOW));
+    }
+
+    /**
+     * 监听方法返回后容器即提交位点 等待这批消息写入ES或转入重试后再返回, 避免进程退出时丢失已提交位点但仍在合并窗口中的消息
+     * 超时后照常提交 未完成的消息由对账任务修复
+     */
+    private void awaitHandled(CompletableFuture<Void> handled) {
+        try {
+            handled.get(ackTimeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            logger.warn("Index messages not handled in {} ms, committing offsets anyway", ackTimeoutMillis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            logger.error("Handle index messages failed", e.getCause());
+        }
+    }
+
+    @KafkaListener(topics = HouseIndexProducer.DEAD_LETTER_TOPIC)
+    private void handleDeadLetter(String content) {
+        try {
+            deadLetterService.record(objectMapper.readValue(content, HouseIndexMessage.class));
+        } catch (IOException e) {
+            logger.error("Cannot parse json for " + content, e);
+        }
+    }
+
+    private List<HouseIndexMessage> parse(List<String> contents) {
+        List<HouseIndexMessage> messages = new ArrayList<>();
+        for (String content : contents) {
+            try {
+                HouseIndexMessage message = objectMapper.readValue(content, HouseIndexMessage.class);
+                if (!HouseIndexMessage.INDEX.equals(message.getOperation())
+                        && !HouseIndexMessage.REMOVE.equals(message.getOperation())
+                        && !HouseIndexMessage.UPDATE.equals(message.getOperation())) {
+                    logger.warn("Not support message content " + content);
+                    continue;
+                }
+                messages.add(message);
+            } catch (IOException e) {
+                logger.error("Cannot parse json for " + content, e);
+            }
+        }
+        return messages;
+    }
+
+    @Override
+    public ListenableFuture<?> send(HouseIndexMessage message) {
+        return indexProducer.send(message);
+    }
+
+    @Override
+    public void publish(HouseIndexMessage message) {
+        indexProducer.publish(message);
+    }
+
+    @Override
+    public void retry(HouseIndexMessage message, String reason) {
+        indexProducer.retry(message, reason);
+    }
+
+    /**
+     * spring-kafka 1.3的容器不支持pause 停止索引主题的消费容器 位点已提交 恢复后从原位置继续消费
+     */
+    @Override
+    public void pause() {
+        containers().forEach(MessageListenerContainer::stop);
+    }
+
+    @Override
+    public void resume() {
+        containers().forEach(MessageListenerContainer::start);
+    }
+
+    @Override
+    public Map<String, Long> backlog() {
+        return new HashMap<>(lags);
+    }
+
+    /**
+     * 统计各索引主题的积压量 已提交位点与最新位点之差
+     */
+    @Scheduled(fixedDelayString = "${search.backpressure.lag-interval-ms:10000}")
+    public void refreshLag() {
+        try {
+            if (offsetConsumer == null) {
+                Map<String, Object> props = kafkaProperties.buildConsumerProperties();
+                props.put(ConsumerConfig.ENABLE_AUTO_COMMIT_CONFIG, false);
+                offsetConsumer = new DefaultKafkaConsumerFactory<String, String>(props).createConsumer();
+            }
+            for (String topic : INDEX_TOPICS) {
+                List<TopicPartition> partitions = new ArrayList<>();
+                for (PartitionInfo partition : offsetConsumer.partitionsFor(topic)) {
+                    partitions.add(new TopicPartition(topic, partition.partition()));
+                }
+
+                long lag = 0;
+                Map<TopicPartition, Long> endOffsets = offsetConsumer.endOffsets(partitions);
+                for (TopicPartition partition : partitions) {
+                    OffsetAndMetadata committed = offsetConsumer.committed(partition);
+                    Long endOffset = endOffsets.get(partition);
+                    if (committed != null && endOffset != null) {
+                        lag += Math.max(0, endOffset - committed.offset());
+                    }
+                }
+                lags.put(topic, lag);
+            }
+        } catch (Exception e) {
+            logger.warn("Refresh index topic lag failed", e);
+        }
+    }
+
+    @PreDestroy
+    public void close() {
+        if (offsetConsumer != null) {
+            offsetConsumer.close();
+        }
+    }
+
+    private List<MessageListenerContainer> containers() {
+        List<MessageListenerContainer> containers = new ArrayList<>();
+        for (MessageListenerContainer container : listenerRegistry.getListenerContainers()) {
+            if (!(container instanceof AbstractMessageListenerContainer)) {
+                continue;
+            }
+            String[] topics = ((AbstractMessageListenerContainer<?, ?>) container).getContainerProperties().getTopics();
+            if (topics != null && !Collections.disjoint(Arrays.asList(topics), INDEX_TOPICS)) {
+                containers.add(container);
+            }
+        }
+        return containers;
+    }
+}
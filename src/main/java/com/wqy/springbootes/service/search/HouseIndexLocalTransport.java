@@ -0,0 +1,222 @@
+package com.wqy.springbootes.service.search;
+
+import com.wqy.springbootes.base.IndexPriority;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+import org.springframework.util.concurrent.ListenableFuture;
+import org.springframework.util.concurrent.SettableListenableFuture;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 进程内索引消息传输 适用于单机部署及本地测试 无需Kafka
+ * 每个通道一个有界队列及一个分发线程, 队列中的消息成批交给HouseIndexMessageHandler, 之后的合并与并发写入与Kafka模式一致
+ * 消息只在内存中 进程崩溃时未处理的消息由对账任务补齐
+ * Created by wqy.
+ */
+@Component
+@ConditionalOnProperty(name = "search.transport", havingValue = "local")
+public class HouseIndexLocalTransport implements HouseIndexTransport, PublicMetrics {
+
+    private static final Logger logger = LoggerFactory.getLogger(HouseIndexLocalTransport.class);
+
+    private static final long POLL_TIMEOUT_MILLIS = 500;
+
+    @Autowired
+    private HouseIndexMessageHandler messageHandler;
+
+    @Autowired
+    private IDeadLetterService deadLetterService;
+
+    @Value("${search.transport.local.queue-capacity:10000}")
+    private int queueCapacity;
+
+    @Value("${search.transport.local.batch-size:500}")
+    private int batchSize;
+
+    @Value("${search.transport.local.offer-timeout-ms:1000}")
+    private long offerTimeoutMillis;
+
+    private final Map<IndexPriority, BlockingQueue<HouseIndexMessage>> queues = new EnumMap<>(IndexPriority.class);
+
+    private final Object pauseLock = new Object();
+
+    private final AtomicLong dropped = new AtomicLong();
+
+    private volatile boolean paused;
+
+    private volatile boolean running = true;
+
+    private ExecutorService dispatchers;
+
+    private ScheduledExecutorService retryScheduler;
+
+    @PostConstruct
+    public void start() {
+        AtomicInteger threadNumber = new AtomicInteger();
+        dispatchers = Executors.newFixedThreadPool(IndexPriority.values().length, runnable -> {
+            Thread thread = new Thread(runnable, "house-index-local-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        retryScheduler = Executors.newSingleThreadScheduledExecutor();
+        for (IndexPriority priority : IndexPriority.values()) {
+            queues.put(priority, new LinkedBlockingQueue<>(queueCapacity));
+            dispatchers.execute(() -> dispatch(priority));
+        }
+    }
+
+    /**
+     * 停止接收后处理完队列中剩余的消息
+     */
+    @PreDestroy
+    public void stop() {
+        running = false;
+        resume();
+        dispatchers.shutdown();
+        try {
+            if (!dispatchers.awaitTermination(30, TimeUnit.SECONDS)) {
+                logger.warn("Local index queues were not drained before shutdown");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        retryScheduler.shutdownNow();
+    }
+
+    private void dispatch(IndexPriority priority) {
+        BlockingQueue<HouseIndexMessage> queue = queues.get(priority);
+        while (running || !queue.isEmpty()) {
+            try {
+                awaitResume();
+                HouseIndexMessage first = queue.poll(POLL_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                List<HouseIndexMessage> batch = new ArrayList<>();
+                batch.add(first);
+                queue.drainTo(batch, batchSize - 1);
+                messageHandler.handle(batch, priority);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (Exception e) {
+                logger.error("Handle local index messages failed", e);
+            }
+        }
+    }
+
+    private void awaitResume() throws InterruptedException {
+        synchronized (pauseLock) {
+            while (paused && running) {
+                pauseLock.wait();
+            }
+        }
+    }
+
+    /**
+     * 队列已满时等待一段时间 仍无空间则返回失败 发件箱会在下一轮重新投递
+     */
+    @Override
+    public ListenableFuture<?> send(HouseIndexMessage message) {
+        SettableListenableFuture<Void> future = new SettableListenableFuture<>();
+        try {
+            if (offer(message)) {
+                future.set(null);
+            } else {
+                future.setException(new RejectedExecutionException("Local index queue is full"));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            future.setException(e);
+        }
+        return future;
+    }
+
+    @Override
+    public void publish(HouseIndexMessage message) {
+        try {
+            if (offer(message)) {
+                return;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        dropped.incrementAndGet();
+        logger.error("Local index queue is full, drop message for house " + message.getHouseId());
+    }
+
+    private boolean offer(HouseIndexMessage message) throws InterruptedException {
+        IndexPriority priority = message.getPriority() == IndexPriority.LOW.getValue()
+                ? IndexPriority.LOW : IndexPriority.HIGH;
+        return queues.get(priority).offer(message, offerTimeoutMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 与Kafka模式相同的逐级延迟 到期后重新进入队列 重试耗尽后直接记为死信
+     */
+    @Override
+    public void retry(HouseIndexMessage message, String reason) {
+        HouseIndexMessage next = message.nextRetry(reason);
+        try {
+            if (next.getRetry() > HouseIndexMessage.MAX_RETRY) {
+                logger.error("Retry index times over 3 for house: " + message.getHouseId() + ", record dead letter");
+                retryScheduler.execute(() -> deadLetterService.record(next));
+                return;
+            }
+            retryScheduler.schedule(() -> publish(next), HouseIndexProducer.retryDelay(next.getRetry()),
+                    TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            logger.warn("Transport stopped, drop retry for house " + message.getHouseId());
+        }
+    }
+
+    @Override
+    public void pause() {
+        paused = true;
+    }
+
+    @Override
+    public void resume() {
+        synchronized (pauseLock) {
+            paused = false;
+            pauseLock.notifyAll();
+        }
+    }
+
+    @Override
+    public Map<String, Long> backlog() {
+        Map<String, Long> backlog = new HashMap<>();
+        queues.forEach((priority, queue) -> backlog.put("local." + priority.name().toLowerCase(), (long) queue.size()));
+        return backlog;
+    }
+
+    @Override
+    public Collection<Metric<?>> metrics() {
+        List<Metric<?>> metrics = new ArrayList<>();
+        metrics.add(new Metric<>("search.transport.local.dropped", dropped.get()));
+        return metrics;
+    }
+}
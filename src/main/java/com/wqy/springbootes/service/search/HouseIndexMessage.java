@@ -1,5 +1,12 @@
 package com.wqy.springbootes.service.search;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.wqy.springbootes.base.IndexPriority;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
 /**
  * Created by wqy.
  */
@@ -7,6 +14,10 @@ public class HouseIndexMessage {
 
     public static final String INDEX = "index";
     public static final String REMOVE = "remove";
+    /**
+     * 局部更新 只写入fields中的字段 不重新组装整个文档
+     */
+    public static final String UPDATE = "update";
 
     public static final int MAX_RETRY = 3;
 
@@ -14,6 +25,61 @@ public class HouseIndexMessage {
     private String operation;
     private int retry = 0;
 
+    /**
+     * 优先级 见IndexPriority 未设置的消息按交互操作处理
+     */
+    private int priority = IndexPriority.HIGH.getValue();
+
+    /**
+     * 局部更新的字段 key为索引字段名
+     */
+    private Map<String, Object> fields;
+
+    /**
+     * 延迟重试的到期时间戳(毫秒) 0表示立即处理
+     */
+    private long retryAt = 0;
+
+    /**
+     * 首次失败时间戳(毫秒)
+     */
+    private long firstFailedAt = 0;
+
+    /**
+     * 最近一次失败原因
+     */
+    private String reason;
+
+    /**
+     * 本次写入ES使用的版本号 即房源更新时间(毫秒) 仅在处理过程中使用 -1表示未设置
+     */
+    @JsonIgnore
+    private long version = -1;
+
+    /**
+     * 房源所在城市 写入成功后用于按城市失效搜索缓存 仅在处理过程中使用 null表示未知
+     */
+    @JsonIgnore
+    private String cityEnName;
+
+    /**
+     * 写入的补全词 写入成功后用于更新进程内补全索引 仅在处理过程中使用
+     */
+    @JsonIgnore
+    private List<HouseSuggest> suggests;
+
+    /**
+     * 处理完成: 已被ES确认写入、判定无需写入或已转入重试 仅在处理过程中使用
+     */
+    @JsonIgnore
+    private final CompletableFuture<Void> done = new CompletableFuture<>();
+
+    /**
+     * 已加入批量写请求 完成时间由批量写入的响应决定
+     */
+    @JsonIgnore
+    private volatile boolean queued;
+
     /**
      * 默认构造器 防止jackson序列化失败
      */
@@ -26,6 +92,20 @@ public class HouseIndexMessage {
         this.retry = retry;
     }
 
+    /**
+     * 生成下一次重试的消息 重试次数加一 保留首次失败时间
+     * @param reason 本次失败原因
+     * @return
+     */
+    public HouseIndexMessage nextRetry(String reason) {
+        HouseIndexMessage next = new HouseIndexMessage(houseId, operation, retry + 1);
+        next.setFields(fields);
+        next.setPriority(priority);
+        next.setFirstFailedAt(firstFailedAt > 0 ? firstFailedAt : System.currentTimeMillis());
+        next.setReason(reason);
+        return next;
+    }
+
     public Long getHouseId() {
         return houseId;
     }
@@ -49,4 +129,92 @@ public class HouseIndexMessage {
     public void setRetry(int retry) {
         this.retry = retry;
     }
+
+    public int getPriority() {
+        return priority;
+    }
+
+    public void setPriority(int priority) {
+        this.priority = priority;
+    }
+
+    public Map<String, Object> getFields() {
+        return fields;
+    }
+
+    public void setFields(Map<String, Object> fields) {
+        this.fields = fields;
+    }
+
+    public long getRetryAt() {
+        return retryAt;
+    }
+
+    public void setRetryAt(long retryAt) {
+        this.retryAt = retryAt;
+    }
+
+    public long getFirstFailedAt() {
+        return firstFailedAt;
+    }
+
+    public void setFirstFailedAt(long firstFailedAt) {
+        this.firstFailedAt = firstFailedAt;
+    }
+
+    public String getReason() {
+        return reason;
+    }
+
+    public void setReason(String reason) {
+        this.reason = reason;
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    public void setVersion(long version) {
+        this.version = version;
+    }
+
+    public String getCityEnName() {
+        return cityEnName;
+    }
+
+    public void setCityEnName(String cityEnName) {
+        this.cityEnName = cityEnName;
+    }
+
+    public List<HouseSuggest> getSuggests() {
+        return suggests;
+    }
+
+    public void setSuggests(List<HouseSuggest> suggests) {
+        this.suggests = suggests;
+    }
+
+    public CompletableFuture<Void> getDone() {
+        return done;
+    }
+
+    public void markDone() {
+        done.complete(null);
+    }
+
+    /**
+     * 合并窗口中被本消息覆盖或吸收的消息 随本消息一起完成
+     * @param other
+     */
+    public void absorb(HouseIndexMessage other) {
+        done.whenComplete((result, e) -> other.markDone());
+    }
+
+    public boolean isQueued() {
+        return queued;
+    }
+
+    public void setQueued(boolean queued) {
+        this.queued = queued;
+    }
 }
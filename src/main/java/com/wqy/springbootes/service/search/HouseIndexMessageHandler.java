@@ -0,0 +1,20 @@
+package com.wqy.springbootes.service.search;
+
+import com.wqy.springbootes.base.IndexPriority;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * 索引消息处理 由传输层在收到一批消息后调用
+ * Created by wqy.
+ */
+public interface HouseIndexMessageHandler {
+
+    /**
+     * @param messages 同一通道收到的一批消息
+     * @param priority 消息所在的通道
+     * @return 这批消息全部处理完成(已写入ES、无需写入或已转入重试)时完成 需要确认位点的传输层等待其完成后再提交
+     */
+    CompletableFuture<Void> handle(List<HouseIndexMessage> messages, IndexPriority priority);
+}
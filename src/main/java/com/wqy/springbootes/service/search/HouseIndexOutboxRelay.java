@@ -0,0 +1,125 @@
+package com.wqy.springbootes.service.search;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.wqy.springbootes.base.OutboxStatus;
+import com.wqy.springbootes.entity.HouseIndexOutbox;
+import com.wqy.springbootes.repository.HouseIndexOutboxRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Sort;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.util.concurrent.ListenableFuture;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * 发件箱投递
+ * 按id顺序批量读取待投递记录按优先级发送到对应的索引通道, 发送确认后标记为已投递
+ * 多实例同时投递时可能重复发送 索引写入本身是幂等的
+ * Created by wqy.
+ */
+@Component
+public class HouseIndexOutboxRelay {
+
+    private static final Logger logger = LoggerFactory.getLogger(HouseIndexOutboxRelay.class);
+
+    private static final long SEND_TIMEOUT_SECONDS = 10;
+
+    private static final TypeReference<Map<String, Object>> FIELDS_TYPE = new TypeReference<Map<String, Object>>() {
+    };
+
+    @Autowired
+    private HouseIndexOutboxRepository outboxRepository;
+
+    @Autowired
+    private HouseIndexTransport indexTransport;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Value("${search.outbox.batch-size:200}")
+    private int batchSize;
+
+    @Value("${search.outbox.retention-days:7}")
+    private int retentionDays;
+
+    @Scheduled(fixedDelayString = "${search.outbox.relay-interval-ms:500}")
+    public void relay() {
+        PageRequest pageRequest = new PageRequest(0, batchSize, new Sort(Sort.Direction.ASC, "id"));
+        while (true) {
+            List<HouseIndexOutbox> outboxes = outboxRepository.findAllByStatus(OutboxStatus.PENDING.getValue(),
+                    pageRequest);
+            if (outboxes.isEmpty()) {
+                return;
+            }
+
+            List<Long> delivered = deliver(outboxes);
+            if (!delivered.isEmpty()) {
+                outboxRepository.updateStatus(delivered, OutboxStatus.DELIVERED.getValue(), new Date());
+            }
+            if (delivered.size() < outboxes.size()) {
+                // 有发送失败的记录 等下一轮再试 避免反复读取同一批
+                return;
+            }
+        }
+    }
+
+    /**
+     * 清理已投递的历史记录
+     */
+    @Scheduled(cron = "${search.outbox.purge-cron:0 0 4 * * ?}")
+    public void purge() {
+        Date before = new Date(System.currentTimeMillis() - TimeUnit.DAYS.toMillis(retentionDays));
+        int deleted = outboxRepository.deleteDelivered(OutboxStatus.DELIVERED.getValue(), before);
+        logger.info("Purged {} delivered outbox records", deleted);
+    }
+
+    /**
+     * 整批发送后统一等待确认
+     * @return 确认成功的记录id 遇到第一条失败即停止 保证同一房源不会越过失败的记录
+     */
+    private List<Long> deliver(List<HouseIndexOutbox> outboxes) {
+        List<ListenableFuture<?>> futures = new ArrayList<>();
+        for (HouseIndexOutbox outbox : outboxes) {
+            HouseIndexMessage message = new HouseIndexMessage(outbox.getHouseId(), outbox.getOperation(), 0);
+            message.setPriority(outbox.getPriority());
+            try {
+                if (outbox.getFields() != null) {
+                    message.setFields(objectMapper.readValue(outbox.getFields(), FIELDS_TYPE));
+                }
+            } catch (IOException e) {
+                // 字段无法解析时退化为整体重建
+                logger.error("Cannot parse fields for outbox " + outbox.getId(), e);
+                message.setOperation(HouseIndexMessage.INDEX);
+            }
+            futures.add(indexTransport.send(message));
+        }
+
+        List<Long> delivered = new ArrayList<>();
+        for (int i = 0; i < outboxes.size(); i++) {
+            try {
+                futures.get(i).get(SEND_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+                delivered.add(outboxes.get(i).getId());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            } catch (ExecutionException | TimeoutException e) {
+                logger.warn("Deliver outbox " + outboxes.get(i).getId() + " failed", e);
+                break;
+            }
+        }
+        return delivered;
+    }
+}
@@ -0,0 +1,54 @@
+package com.wqy.springbootes.service.search;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 记录每个房源未处理完的消息由哪个通道持有
+ * 房源在某个通道上还有未处理完的消息时 之后的消息不论优先级都交给同一通道, 排在它后面顺序处理;
+ * 没有未处理完的消息时才按优先级选择通道, 因此同一房源的消息不会在交互与批量两个通道上乱序
+ * Created by wqy.
+ */
+class HouseIndexOwners<T> {
+
+    private final Map<Long, Owner<T>> owners = new ConcurrentHashMap<>();
+
+    /**
+     * 每次调用都计一条未处理完的消息 处理完后需调用release
+     * @param houseId
+     * @param preferred 房源没有未处理完的消息时选择的通道
+     * @return 持有该房源的通道
+     */
+    T claim(Long houseId, T preferred) {
+        return owners.compute(houseId, (id, owner) -> {
+            if (owner == null) {
+                return new Owner<>(preferred);
+            }
+            owner.pending++;
+            return owner;
+        }).lane;
+    }
+
+    /**
+     * 一条消息处理完成或放回合并窗口 最后一条完成后释放持有
+     * @param houseId
+     */
+    void release(Long houseId) {
+        owners.computeIfPresent(houseId, (id, owner) -> --owner.pending == 0 ? null : owner);
+    }
+
+    int size() {
+        return owners.size();
+    }
+
+    private static class Owner<T> {
+
+        private final T lane;
+
+        private int pending = 1;
+
+        private Owner(T lane) {
+            this.lane = lane;
+        }
+    }
+}
@@ -0,0 +1,261 @@
+package com.wqy.springbootes.service.search;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.wqy.springbootes.base.IndexPriority;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.kafka.support.SendResult;
+import org.springframework.stereotype.Component;
+import org.springframework.util.concurrent.ListenableFuture;
+import org.springframework.util.concurrent.SettableListenableFuture;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 索引消息投递
+ * 交互操作与批量任务分别进入各自的索引主题, 批量任务积压时不影响交互操作的索引延迟
+ * 失败的消息按重试次数进入逐级延长的延迟主题, 超过最大重试次数后进入死信主题
+ * 不等待结果的投递在Kafka不可用时写入本地日志, 由后台线程在Kafka恢复后按顺序补发
+ * Created by wqy.
+ */
+@Component
+@ConditionalOnProperty(name = "search.transport", havingValue = "kafka", matchIfMissing = true)
+public class HouseIndexProducer implements PublicMetrics {
+
+    private static final Logger logger = LoggerFactory.getLogger(HouseIndexProducer.class);
+
+    static final String INDEX_TOPIC = "house_build";
+
+    static final String BULK_INDEX_TOPIC = "house_build_bulk";
+
+    static final String RETRY_TOPIC_5S = "house_build_retry_5s";
+
+    static final String RETRY_TOPIC_30S = "house_build_retry_30s";
+
+    static final String RETRY_TOPIC_5M = "house_build_retry_5m";
+
+    static final String DEAD_LETTER_TOPIC = "house_build_dlq";
+
+    /**
+     * 第N次重试使用的主题及延迟 下标为retry-1
+     */
+    private static final String[] RETRY_TOPICS = {RETRY_TOPIC_5S, RETRY_TOPIC_30S, RETRY_TOPIC_5M};
+
+    private static final long[] RETRY_DELAYS = {
+            TimeUnit.SECONDS.toMillis(5), TimeUnit.SECONDS.toMillis(30), TimeUnit.MINUTES.toMillis(5)};
+
+    private static final long JOURNAL_SEND_TIMEOUT_SECONDS = 10;
+
+    private static final long JOURNAL_IDLE_MILLIS = 500;
+
+    private static final long JOURNAL_MAX_BACKOFF_MILLIS = TimeUnit.SECONDS.toMillis(30);
+
+    @Autowired
+    private KafkaTemplate<String, String> kafkaTemplate;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Value("${search.journal.dir:data/index-journal}")
+    private String journalDir;
+
+    @Value("${search.journal.segment-mb:16}")
+    private int journalSegmentMb;
+
+    private HouseIndexJournal journal;
+
+    /**
+     * 有消息发送失败后置位 之后的消息都先写入日志, 日志补发完成后才恢复直接发送
+     */
+    private final AtomicBoolean journalFirst = new AtomicBoolean();
+
+    private ExecutorService journalDrainer;
+
+    @PostConstruct
+    public void openJournal() throws IOException {
+        this.journal = new HouseIndexJournal(Paths.get(journalDir), journalSegmentMb * 1024 * 1024);
+        this.journalDrainer = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "house-index-journal");
+            thread.setDaemon(true);
+            return thread;
+        });
+        journalDrainer.execute(this::drainJournal);
+    }
+
+    @PreDestroy
+    public void closeJournal() {
+        journalDrainer.shutdownNow();
+    }
+
+    /**
+     * 按优先级投递到对应的索引主题 立即处理
+     * @param message
+     * @return 发送结果
+     */
+    public ListenableFuture<SendResult<String, String>> send(HouseIndexMessage message) {
+        if (message.getPriority() == IndexPriority.LOW.getValue()) {
+            return send(BULK_INDEX_TOPIC, message);
+        }
+        return send(INDEX_TOPIC, message);
+    }
+
+    /**
+     * 按优先级投递到对应的索引主题 不等待发送结果 发送失败时写入本地日志补发
+     * @param message
+     */
+    public void publish(HouseIndexMessage message) {
+        publish(message.getPriority() == IndexPriority.LOW.getValue() ? BULK_INDEX_TOPIC : INDEX_TOPIC, message);
+    }
+
+    /**
+     * 处理失败的消息进入下一级延迟主题 重试耗尽后进入死信主题
+     * @param message 本次处理失败的消息
+     * @param reason 失败原因
+     */
+    public void retry(HouseIndexMessage message, String reason) {
+        HouseIndexMessage next = message.nextRetry(reason);
+        int retry = next.getRetry();
+        if (retry > HouseIndexMessage.MAX_RETRY) {
+            logger.error("Retry index times over 3 for house: " + message.getHouseId()
+                    + ", send to dead letter topic " + DEAD_LETTER_TOPIC);
+            publish(DEAD_LETTER_TOPIC, next);
+            return;
+        }
+
+        next.setRetryAt(System.currentTimeMillis() + retryDelay(retry));
+        publish(RETRY_TOPICS[Math.min(retry, RETRY_TOPICS.length) - 1], next);
+    }
+
+    /**
+     * 第retry次重试的延迟
+     * @param retry 从1开始
+     * @return 毫秒
+     */
+    static long retryDelay(int retry) {
+        return RETRY_DELAYS[Math.min(retry, RETRY_DELAYS.length) - 1];
+    }
+
+    /**
+     * 有消息发送失败或日志中有未补发的记录时直接追加到日志, 排在失败的消息之后由后台线程按顺序补发
+     * 失败前已交给Kafka客户端的消息仍可能先于失败的消息送达; 之后发布的消息不会越过它
+     * Kafka不可用时send最多阻塞search.producer.max-block-ms
+     */
+    private void publish(String topic, HouseIndexMessage message) {
+        String key = String.valueOf(message.getHouseId());
+        String content;
+        try {
+            content = objectMapper.writeValueAsString(message);
+        } catch (JsonProcessingException e) {
+            logger.error("Json encode error for " + message);
+            return;
+        }
+
+        if (journalFirst.get() || journal.hasPending()) {
+            appendJournal(topic, key, content);
+            return;
+        }
+        try {
+            kafkaTemplate.send(topic, key, content).addCallback(result -> {
+            }, e -> onSendFailure(topic, key, content, e));
+        } catch (Exception e) {
+            onSendFailure(topic, key, content, e);
+        }
+    }
+
+    /**
+     * 先置位再写日志 写日志期间发布的消息也进入日志; 与复位互斥, 失败的消息写入日志前不会被复位
+     */
+    private void onSendFailure(String topic, String key, String content, Throwable e) {
+        logger.warn("Send to " + topic + " failed, append to journal", e);
+        synchronized (journalFirst) {
+            journalFirst.set(true);
+            appendJournal(topic, key, content);
+        }
+    }
+
+    private void appendJournal(String topic, String key, String content) {
+        try {
+            journal.append(topic, key, content);
+        } catch (IOException e) {
+            logger.error("Index message lost, can not append to journal: " + content, e);
+        }
+    }
+
+    /**
+     * 按写入顺序补发日志中的记录 发送失败时退避重试 确认成功后才前进
+     */
+    private void drainJournal() {
+        long backoff = JOURNAL_IDLE_MILLIS;
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                HouseIndexJournal.Record record = journal.peek();
+                if (record == null) {
+                    // 日志已补发完 恢复直接发送; 复位前刚追加的记录由hasPending保证之后的消息仍先走日志
+                    synchronized (journalFirst) {
+                        journalFirst.set(false);
+                    }
+                    Thread.sleep(JOURNAL_IDLE_MILLIS);
+                    continue;
+                }
+                kafkaTemplate.send(record.getTopic(), record.getKey(), record.getContent())
+                        .get(JOURNAL_SEND_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+                journal.commit(record);
+                backoff = JOURNAL_IDLE_MILLIS;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException | TimeoutException | IOException e) {
+                logger.warn("Drain index journal failed, retry in " + backoff + " ms", e);
+                try {
+                    Thread.sleep(backoff);
+                } catch (InterruptedException interrupted) {
+                    Thread.currentThread().interrupt();
+                }
+                backoff = Math.min(backoff * 2, JOURNAL_MAX_BACKOFF_MILLIS);
+            }
+        }
+    }
+
+    private ListenableFuture<SendResult<String, String>> send(String topic, HouseIndexMessage message) {
+        try {
+            // 以houseId为key 同一房源的消息落在同一分区 保证消费顺序
+            return kafkaTemplate.send(topic, String.valueOf(message.getHouseId()),
+                    objectMapper.writeValueAsString(message));
+        } catch (JsonProcessingException e) {
+            logger.error("Json encode error for " + message);
+            SettableListenableFuture<SendResult<String, String>> future = new SettableListenableFuture<>();
+            future.setException(e);
+            return future;
+        }
+    }
+
+    @Override
+    public Collection<Metric<?>> metrics() {
+        List<Metric<?>> metrics = new ArrayList<>();
+        metrics.add(new Metric<>("search.journal.appended", journal.getAppended()));
+        metrics.add(new Metric<>("search.journal.drained", journal.getDrained()));
+        metrics.add(new Metric<>("search.journal.corrupted", journal.getCorrupted()));
+        metrics.add(new Metric<>("search.journal.segments", journal.getSegments()));
+        metrics.add(new Metric<>("search.journal.pending", journal.hasPending() ? 1 : 0));
+        metrics.add(new Metric<>("search.journal.first", journalFirst.get() ? 1 : 0));
+        return metrics;
+    }
+}
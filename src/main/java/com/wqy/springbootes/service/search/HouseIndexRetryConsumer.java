@@ -0,0 +1,69 @@
+package com.wqy.springbootes.service.search;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.kafka.annotation.KafkaListener;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+
+/**
+ * 延迟重试主题消费
+ * 每级主题独立容器消费, 同一主题内消息延迟相同 按到达顺序即到期顺序, 等待队首到期后转投索引主题
+ * 等待只占用重试容器的线程 不影响索引主题的消费
+ * Created by wqy.
+ */
+@Component
+@ConditionalOnProperty(name = "search.transport", havingValue = "kafka", matchIfMissing = true)
+public class HouseIndexRetryConsumer {
+
+    private static final Logger logger = LoggerFactory.getLogger(HouseIndexRetryConsumer.class);
+
+    @Autowired
+    private HouseIndexProducer indexProducer;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @KafkaListener(topics = HouseIndexProducer.RETRY_TOPIC_5S, containerFactory = "retryKafkaListenerContainerFactory")
+    private void handleRetry5s(String content) {
+        delayAndResend(content);
+    }
+
+    @KafkaListener(topics = HouseIndexProducer.RETRY_TOPIC_30S, containerFactory = "retryKafkaListenerContainerFactory")
+    private void handleRetry30s(String content) {
+        delayAndResend(content);
+    }
+
+    @KafkaListener(topics = HouseIndexProducer.RETRY_TOPIC_5M, containerFactory = "retryKafkaListenerContainerFactory")
+    private void handleRetry5m(String content) {
+        delayAndResend(content);
+    }
+
+    private void delayAndResend(String content) {
+        HouseIndexMessage message;
+        try {
+            message = objectMapper.readValue(content, HouseIndexMessage.class);
+        } catch (IOException e) {
+            logger.error("Cannot parse json for " + content, e);
+            return;
+        }
+
+        long delay = message.getRetryAt() - System.currentTimeMillis();
+        if (delay > 0) {
+            try {
+                Thread.sleep(delay);
+            } catch (InterruptedException e) {
+                // 停机中断 提前转投以免消息在位移提交后丢失
+                Thread.currentThread().interrupt();
+                logger.warn("Interrupted while delaying retry for house " + message.getHouseId());
+            }
+        }
+
+        message.setRetryAt(0);
+        indexProducer.publish(message);
+    }
+}
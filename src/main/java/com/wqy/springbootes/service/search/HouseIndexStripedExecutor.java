@@ -0,0 +1,104 @@
+package com.wqy.springbootes.service.search;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 按房源分条带的执行器
+ * 同一房源总是落在同一条带 每个条带单线程顺序执行, 不同房源可并行
+ * 条带队列满时阻塞提交方 将压力传回消费端
+ * Created by wqy.
+ */
+public class HouseIndexStripedExecutor {
+
+    private static final Logger logger = LoggerFactory.getLogger(HouseIndexStripedExecutor.class);
+
+    private final List<ThreadPoolExecutor> stripes = new ArrayList<>();
+
+    public HouseIndexStripedExecutor(int stripeCount, int queueCapacity) {
+        AtomicInteger threadNumber = new AtomicInteger();
+        ThreadFactory threadFactory = runnable -> {
+            Thread thread = new Thread(runnable, "house-index-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+        for (int i = 0; i < stripeCount; i++) {
+            stripes.add(new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+                    new LinkedBlockingQueue<>(queueCapacity), threadFactory, (task, executor) -> {
+                if (executor.isShutdown()) {
+                    throw new RejectedExecutionException("Striped executor has been shut down");
+                }
+                try {
+                    executor.getQueue().put(task);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new RejectedExecutionException("Interrupted while waiting for stripe queue", e);
+                }
+            }));
+        }
+    }
+
+    public int stripeOf(Long houseId) {
+        return (int) Math.floorMod(houseId, (long) stripes.size());
+    }
+
+    /**
+     * 在指定条带上执行 提交顺序即执行顺序
+     * @param stripe
+     * @param task
+     */
+    public void execute(int stripe, Runnable task) {
+        stripes.get(stripe).execute(() -> {
+            try {
+                task.run();
+            } catch (Exception e) {
+                logger.error("Index task failed on stripe " + stripe, e);
+            }
+        });
+    }
+
+    /**
+     * 条带队列未满时提交 否则立即返回 不阻塞调用方
+     * @param stripe
+     * @param task
+     * @return 是否已提交
+     */
+    public boolean tryExecute(int stripe, Runnable task) {
+        ThreadPoolExecutor executor = stripes.get(stripe);
+        if (executor.getQueue().remainingCapacity() == 0) {
+            return false;
+        }
+        execute(stripe, task);
+        return true;
+    }
+
+    /**
+     * 停止接收任务并等待已提交的任务完成
+     * @param timeoutSeconds
+     * @return 是否在超时前全部完成
+     */
+    public boolean shutdown(long timeoutSeconds) {
+        stripes.forEach(ThreadPoolExecutor::shutdown);
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(timeoutSeconds);
+        try {
+            for (ThreadPoolExecutor stripe : stripes) {
+                if (!stripe.awaitTermination(deadline - System.nanoTime(), TimeUnit.NANOSECONDS)) {
+                    return false;
+                }
+            }
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+}
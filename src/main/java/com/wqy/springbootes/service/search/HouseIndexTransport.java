@@ -0,0 +1,47 @@
+package com.wqy.springbootes.service.search;
+
+import org.springframework.util.concurrent.ListenableFuture;
+
+import java.util.Map;
+
+/**
+ * 索引消息传输
+ * search.transport=kafka 经Kafka主题传输, 多实例共享; search.transport=local 使用进程内有界队列, 单机部署无需Kafka
+ * 收到的消息交给HouseIndexMessageHandler写入索引
+ * Created by wqy.
+ */
+public interface HouseIndexTransport {
+
+    /**
+     * 按优先级投递到对应的索引通道
+     * @param message
+     * @return 消息被传输层接收后完成
+     */
+    ListenableFuture<?> send(HouseIndexMessage message);
+
+    /**
+     * 投递且不等待结果
+     * @param message
+     */
+    void publish(HouseIndexMessage message);
+
+    /**
+     * 处理失败的消息延迟重试 重试耗尽后记为死信
+     * @param message 本次处理失败的消息
+     * @param reason 失败原因
+     */
+    void retry(HouseIndexMessage message, String reason);
+
+    /**
+     * 暂停接收索引消息 未处理的消息留在传输层
+     */
+    void pause();
+
+    void resume();
+
+    /**
+     * 各索引通道积压的消息数
+     * @return 通道名到积压数
+     */
+    Map<String, Long> backlog();
+}
@@ -0,0 +1,357 @@
+package com.wqy.springbootes.service.search;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.primitives.Longs;
+import com.wqy.springbootes.base.HouseStatus;
+import com.wqy.springbootes.base.IndexPriority;
+import com.wqy.springbootes.entity.House;
+import com.wqy.springbootes.repository.HouseRepository;
+import com.wqy.springbootes.service.ServiceResult;
+import org.elasticsearch.action.get.GetResponse;
+import org.elasticsearch.action.get.MultiGetItemResponse;
+import org.elasticsearch.action.get.MultiGetRequest;
+import org.elasticsearch.action.get.MultiGetRequestBuilder;
+import org.elasticsearch.action.get.MultiGetResponse;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.client.transport.TransportClient;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.index.query.QueryBuilders;
+import org.elasticsearch.search.SearchHit;
+import org.elasticsearch.search.fetch.source.FetchSourceContext;
+import org.elasticsearch.search.sort.SortOrder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * MySQL与索引对账
+ * 第一轮按更新时间水位增量扫描房源, 批量比对索引中的lastUpdateTime, 只重建缺失或过期的文档
+ * 第二轮遍历索引文档, 删除房源已不存在或不再是审核通过状态的文档 需要扫描整个索引, 按单独的低频调度执行
+ * 水位保存在Redis中 重启后从上次的位置继续; 多实例部署时以Redis锁保证同一时间只有一个实例在对账
+ * Created by wqy.
+ */
+@Component
+public class HouseReconcileJob {
+
+    private static final Logger logger = LoggerFactory.getLogger(HouseReconcileJob.class);
+
+    private static final TimeValue SCROLL_KEEP_ALIVE = TimeValue.timeValueMinutes(1);
+
+    private static final String WATERMARK_KEY = "search:reconcile:watermark";
+
+    private static final String LOCK_KEY = "search:reconcile:lock";
+
+    /**
+     * 未被持有时加锁 持有者是自己时续期
+     */
+    private static final RedisScript<Long> ACQUIRE_LOCK = new DefaultRedisScript<>(
+            "if redis.call('get', KEYS[1]) == ARGV[1] then return redis.call('pexpire', KEYS[1], ARGV[2]) end "
+                    + "if redis.call('set', KEYS[1], ARGV[1], 'NX', 'PX', ARGV[2]) then return 1 end return 0",
+            Long.class);
+
+    /**
+     * 只释放自己持有的锁 过期后被其他实例取得的锁不受影响
+     */
+    private static final RedisScript<Long> RELEASE_LOCK = new DefaultRedisScript<>(
+            "if redis.call('get', KEYS[1]) == ARGV[1] then return redis.call('del', KEYS[1]) end return 0",
+            Long.class);
+
+    @Autowired
+    private TransportClient esClient;
+
+    @Autowired
+    private HouseRepository houseRepository;
+
+    @Autowired
+    private ISearchService searchService;
+
+    @Autowired
+    private HouseReindexJob reindexJob;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Autowired
+    private RedisTemplate<String, String> redisTemplate;
+
+    @Value("${search.reconcile.enabled:true}")
+    private boolean enabled;
+
+    @Value("${search.reconcile.page-size:500}")
+    private int pageSize;
+
+    /**
+     * 最近这段时间内的变更大概率仍在索引管道中 留到下一轮再比对
+     */
+    @Value("${search.reconcile.grace-seconds:120}")
+    private long graceSeconds;
+
+    /**
+     * 每处理一页续期一次 持有锁的实例异常退出后其他实例最多等待这么久
+     */
+    @Value("${search.reconcile.lock-seconds:300}")
+    private long lockSeconds;
+
+    private final String lockToken = UUID.randomUUID().toString();
+
+    private final ExecutorService jobExecutor = Executors.newSingleThreadExecutor();
+
+    private final AtomicBoolean running = new AtomicBoolean(false);
+
+    private volatile HouseReconcileReport lastReport;
+
+    @Scheduled(cron = "${search.reconcile.cron:0 */10 * * * ?}")
+    public void scheduledReconcile() {
+        if (enabled) {
+            start(false);
+        }
+    }
+
+    @Scheduled(cron = "${search.reconcile.orphan-cron:0 30 3 * * ?}")
+    public void scheduledOrphanScan() {
+        if (enabled) {
+            start(true);
+        }
+    }
+
+    /**
+     * 手动触发时两轮都执行
+     * @return 本次对账的报告 执行结束前endTime为空
+     */
+    public ServiceResult<HouseReconcileReport> start() {
+        return start(true);
+    }
+
+    /**
+     * 在独立线程上执行一次对账 不占用调度线程与请求线程
+     * 同一时间所有实例中只允许一个任务运行 全量重建期间跳过
+     * @param scanOrphans 是否执行遍历整个索引的第二轮
+     * @return 本次对账的报告 执行结束前endTime为空
+     */
+    private ServiceResult<HouseReconcileReport> start(boolean scanOrphans) {
+        if (reindexJob.isRunning()) {
+            return new ServiceResult<>(false, "Reindex job is running");
+        }
+        if (!running.compareAndSet(false, true)) {
+            return new ServiceResult<>(false, "Reconcile job is already running", lastReport);
+        }
+        boolean locked;
+        try {
+            locked = holdLock();
+        } catch (Exception e) {
+            running.set(false);
+            logger.warn("Acquire reconcile lock failed", e);
+            return new ServiceResult<>(false, "Acquire reconcile lock failed: " + e.getMessage());
+        }
+        if (!locked) {
+            running.set(false);
+            return new ServiceResult<>(false, "Reconcile job is running on another instance");
+        }
+
+        HouseReconcileReport report = new HouseReconcileReport();
+        lastReport = report;
+        jobExecutor.submit(() -> reconcile(report, scanOrphans));
+        return ServiceResult.of(report);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        jobExecutor.shutdownNow();
+    }
+
+    private void reconcile(HouseReconcileReport report, boolean scanOrphans) {
+        try {
+            Date from = loadWatermark();
+            Date to = new Date(System.currentTimeMillis() - TimeUnit.SECONDS.toMillis(graceSeconds));
+            report.setFrom(from);
+            report.setTo(to);
+
+            long start = System.currentTimeMillis();
+            reconcileUpdated(from, to, report);
+            report.setIncrementalMillis(System.currentTimeMillis() - start);
+            // 第一轮完成即推进水位 第二轮失败不必重新比对这段时间
+            redisTemplate.opsForValue().set(WATERMARK_KEY, String.valueOf(to.getTime()));
+
+            if (scanOrphans) {
+                start = System.currentTimeMillis();
+                removeOrphans(report);
+                report.setOrphanMillis(System.currentTimeMillis() - start);
+            }
+
+            report.finish();
+            logger.info("Reconcile finished: {}", report);
+        } catch (Exception e) {
+            logger.error("Reconcile failed", e);
+            report.fail(e.getMessage());
+        } finally {
+            releaseLock();
+            running.set(false);
+        }
+    }
+
+    /**
+     * 没有记录时从头比对
+     */
+    private Date loadWatermark() {
+        String value = redisTemplate.opsForValue().get(WATERMARK_KEY);
+        Long millis = value == null ? null : Longs.tryParse(value);
+        return new Date(millis == null ? 0 : millis);
+    }
+
+    /**
+     * 加锁或为自己持有的锁续期
+     * @return 锁已被其他实例持有时返回false
+     */
+    private boolean holdLock() {
+        Long result = redisTemplate.execute(ACQUIRE_LOCK, Collections.singletonList(LOCK_KEY), lockToken,
+                String.valueOf(TimeUnit.SECONDS.toMillis(lockSeconds)));
+        return result != null && result == 1;
+    }
+
+    /**
+     * 每页处理前续期 锁已过期并被其他实例取得时中止本次对账
+     */
+    private void renewLock() {
+        if (!holdLock()) {
+            throw new IllegalStateException("Reconcile lock was taken over by another instance");
+        }
+    }
+
+    private void releaseLock() {
+        try {
+            redisTemplate.execute(RELEASE_LOCK, Collections.singletonList(LOCK_KEY), lockToken);
+        } catch (Exception e) {
+            logger.warn("Release reconcile lock failed, it expires in " + lockSeconds + " seconds", e);
+        }
+    }
+
+    public HouseReconcileReport getLastReport() {
+        return lastReport;
+    }
+
+    private void reconcileUpdated(Date from, Date to, HouseReconcileReport report) {
+        Long lastId = 0L;
+        PageRequest pageRequest = new PageRequest(0, pageSize, new Sort(Sort.Direction.ASC, "id"));
+        while (true) {
+            renewLock();
+            List<House> houses = houseRepository.findAllByLastUpdateTimeBetweenAndIdGreaterThan(from, to, lastId,
+                    pageRequest);
+            if (houses.isEmpty()) {
+                return;
+            }
+            lastId = houses.get(houses.size() - 1).getId();
+            report.addScanned(houses.size());
+
+            Map<Long, Date> indexed = loadIndexedUpdateTimes(houses);
+            for (House house : houses) {
+                boolean passes = house.getStatus() == HouseStatus.PASSES.getValue();
+                boolean exists = indexed.containsKey(house.getId());
+                if (passes && !exists) {
+                    report.incrementMissing();
+                    searchService.index(house.getId(), IndexPriority.LOW);
+                } else if (passes && isStale(indexed.get(house.getId()), house.getLastUpdateTime())) {
+                    report.incrementStale();
+                    searchService.index(house.getId(), IndexPriority.LOW);
+                } else if (!passes && exists) {
+                    report.incrementRemoved();
+                    searchService.remove(house.getId(), IndexPriority.LOW);
+                }
+            }
+        }
+    }
+
+    /**
+     * 批量读取索引中的更新时间 只取lastUpdateTime字段
+     * @return 存在的文档 houseId到更新时间 字段缺失时为null
+     */
+    private Map<Long, Date> loadIndexedUpdateTimes(List<House> houses) {
+        MultiGetRequestBuilder request = esClient.prepareMultiGet();
+        FetchSourceContext sourceContext = new FetchSourceContext(HouseIndexKey.LAST_UPDATE_TIME);
+        for (House house : houses) {
+            request.add(new MultiGetRequest.Item(SearchServiceImpl.INDEX_ALIAS, SearchServiceImpl.INDEX_TYPE,
+                    String.valueOf(house.getId())).fetchSourceContext(sourceContext));
+        }
+
+        Map<Long, Date> indexed = new HashMap<>();
+        MultiGetResponse response = request.get();
+        for (MultiGetItemResponse item : response) {
+            if (item.isFailed()) {
+                logger.warn("Multi get house {} failed: {}", item.getId(), item.getFailure().getMessage());
+                continue;
+            }
+            GetResponse getResponse = item.getResponse();
+            if (!getResponse.isExists()) {
+                continue;
+            }
+            Object value = getResponse.getSource() == null ? null
+                    : getResponse.getSource().get(HouseIndexKey.LAST_UPDATE_TIME);
+            indexed.put(Long.valueOf(item.getId()), value == null ? null : objectMapper.convertValue(value, Date.class));
+        }
+        return indexed;
+    }
+
+    private boolean isStale(Date indexedTime, Date houseTime) {
+        return indexedTime == null || (houseTime != null && indexedTime.before(houseTime));
+    }
+
+    private void removeOrphans(HouseReconcileReport report) {
+        SearchResponse response = esClient.prepareSearch(SearchServiceImpl.INDEX_ALIAS)
+                .setTypes(SearchServiceImpl.INDEX_TYPE)
+                .setQuery(QueryBuilders.matchAllQuery())
+                .setFetchSource(false)
+                .addSort("_doc", SortOrder.ASC)
+                .setScroll(SCROLL_KEEP_ALIVE)
+                .setSize(pageSize)
+                .get();
+        try {
+            while (response.getHits().getHits().length > 0) {
+                renewLock();
+                List<Long> houseIds = new ArrayList<>();
+                for (SearchHit hit : response.getHits()) {
+                    Long houseId = Longs.tryParse(hit.getId());
+                    if (houseId != null) {
+                        houseIds.add(houseId);
+                    }
+                }
+                report.addScannedDocuments(houseIds.size());
+
+                Map<Long, Integer> statuses = new HashMap<>();
+                houseRepository.findAll(houseIds).forEach(house -> statuses.put(house.getId(), house.getStatus()));
+                for (Long houseId : houseIds) {
+                    Integer status = statuses.get(houseId);
+                    if (status == null || status != HouseStatus.PASSES.getValue()) {
+                        report.incrementOrphans();
+                        searchService.remove(houseId, IndexPriority.LOW);
+                    }
+                }
+
+                response = esClient.prepareSearchScroll(response.getScrollId())
+                        .setScroll(SCROLL_KEEP_ALIVE)
+                        .get();
+            }
+        } finally {
+            esClient.prepareClearScroll().addScrollId(response.getScrollId()).get();
+        }
+    }
+}
@@ -0,0 +1,156 @@
+package com.wqy.springbootes.service.search;
+
+import java.util.Date;
+
+/**
+ * 一次对账的统计结果
+ * Created by wqy.
+ */
+public class HouseReconcileReport {
+
+    private final Date startTime = new Date();
+
+    private Date endTime;
+
+    /**
+     * 本次增量扫描的更新时间范围
+     */
+    private Date from;
+
+    private Date to;
+
+    private long scanned;
+
+    private long missing;
+
+    private long stale;
+
+    private long removed;
+
+    private long scannedDocuments;
+
+    private long orphans;
+
+    private long incrementalMillis;
+
+    private long orphanMillis;
+
+    private String message;
+
+    public void finish() {
+        this.endTime = new Date();
+    }
+
+    public void fail(String message) {
+        this.message = message;
+        this.endTime = new Date();
+    }
+
+    public Date getStartTime() {
+        return startTime;
+    }
+
+    public Date getEndTime() {
+        return endTime;
+    }
+
+    public Date getFrom() {
+        return from;
+    }
+
+    public void setFrom(Date from) {
+        this.from = from;
+    }
+
+    public Date getTo() {
+        return to;
+    }
+
+    public void setTo(Date to) {
+        this.to = to;
+    }
+
+    public long getScanned() {
+        return scanned;
+    }
+
+    public void addScanned(long count) {
+        this.scanned += count;
+    }
+
+    public long getMissing() {
+        return missing;
+    }
+
+    public void incrementMissing() {
+        this.missing++;
+    }
+
+    public long getStale() {
+        return stale;
+    }
+
+    public void incrementStale() {
+        this.stale++;
+    }
+
+    public long getRemoved() {
+        return removed;
+    }
+
+    public void incrementRemoved() {
+        this.removed++;
+    }
+
+    public long getScannedDocuments() {
+        return scannedDocuments;
+    }
+
+    public void addScannedDocuments(long count) {
+        this.scannedDocuments += count;
+    }
+
+    public long getOrphans() {
+        return orphans;
+    }
+
+    public void incrementOrphans() {
+        this.orphans++;
+    }
+
+    public long getIncrementalMillis() {
+        return incrementalMillis;
+    }
+
+    public void setIncrementalMillis(long incrementalMillis) {
+        this.incrementalMillis = incrementalMillis;
+    }
+
+    public long getOrphanMillis() {
+        return orphanMillis;
+    }
+
+    public void setOrphanMillis(long orphanMillis) {
+        this.orphanMillis = orphanMillis;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+
+    @Override
+    public String toString() {
+        return "HouseReconcileReport{" +
+                "from=" + from +
+                ", to=" + to +
+                ", scanned=" + scanned +
+                ", missing=" + missing +
+                ", stale=" + stale +
+                ", removed=" + removed +
+                ", scannedDocuments=" + scannedDocuments +
+                ", orphans=" + orphans +
+                ", incrementalMillis=" + incrementalMillis +
+                ", orphanMillis=" + orphanMillis +
+                '}';
+    }
+}
@@ -0,0 +1,417 @@
+package com.wqy.springbootes.service.search;
+
+import com.carrotsearch.hppc.cursors.ObjectObjectCursor;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.RateLimiter;
+import com.wqy.springbootes.base.HouseStatus;
+import com.wqy.springbootes.base.IndexPriority;
+import com.wqy.springbootes.entity.House;
+import com.wqy.springbootes.repository.HouseRepository;
+import com.wqy.springbootes.service.ServiceResult;
+import org.elasticsearch.action.admin.indices.alias.IndicesAliasesRequestBuilder;
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.client.IndicesAdminClient;
+import org.elasticsearch.client.transport.TransportClient;
+import org.elasticsearch.cluster.metadata.AliasMetaData;
+import org.elasticsearch.common.collect.ImmutableOpenMap;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.index.VersionType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Sort;
+import org.springframework.stereotype.Component;
+import org.springframework.util.StreamUtils;
+
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 全量重建索引任务
+ * 从MySQL分页读取已审核房源写入新版本索引, 完成后原子切换别名, 并重放重建期间收到的索引消息
+ * Created by wqy.
+ */
+@Component
+public class HouseReindexJob {
+
+    private static final Logger logger = LoggerFactory.getLogger(HouseReindexJob.class);
+
+    private static final String INDEX_SOURCE_LOCATION = "db/house_index_with_suggest.json";
+
+    private static final long HEALTH_CHECK_INTERVAL_MILLIS = 1000;
+
+    private static final int SWAP_ATTEMPTS = 3;
+
+    @Autowired
+    private TransportClient esClient;
+
+    @Autowired
+    private HouseRepository houseRepository;
+
+    @Autowired
+    private HouseIndexEnricher indexEnricher;
+
+    @Autowired
+    private HouseIndexHealth indexHealth;
+
+    @Autowired
+    private ISearchService searchService;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Autowired
+    private HouseIndexTransport indexTransport;
+
+    @Autowired
+    private HouseIndexBackpressure backpressure;
+
+    @Value("${search.reindex.page-size:500}")
+    private int pageSize;
+
+    @Value("${search.reindex.threads:4}")
+    private int threads;
+
+    @Value("${search.reindex.max-docs-per-second:200}")
+    private double maxDocsPerSecond;
+
+    @Value("${search.reindex.delete-old-index:true}")
+    private boolean deleteOldIndex;
+
+    @Value("${search.reindex.swap-quiesce-ms:3000}")
+    private long swapQuiesceMillis;
+
+    @Value("${search.bulk.actions:500}")
+    private int bulkActions;
+
+    @Value("${search.bulk.size-mb:5}")
+    private int bulkSizeMb;
+
+    @Value("${search.bulk.flush-interval-ms:1000}")
+    private long bulkFlushIntervalMillis;
+
+    @Value("${search.bulk.concurrent-requests:1}")
+    private int bulkConcurrentRequests;
+
+    private final ExecutorService jobExecutor = Executors.newSingleThreadExecutor();
+
+    private final AtomicBoolean running = new AtomicBoolean(false);
+
+    /**
+     * 重建期间收到的索引消息 按房源只保留最后一次操作
+     */
+    private final Map<Long, String> pendingReplay = new ConcurrentHashMap<>();
+
+    private volatile boolean recording = false;
+
+    private volatile HouseReindexProgress progress;
+
+    /**
+     * 触发全量重建 同一时间只允许一个任务运行
+     * @return
+     */
+    public ServiceResult<HouseReindexProgress> start() {
+        if (!running.compareAndSet(false, true)) {
+            return new ServiceResult<>(false, "Reindex job is already running", progress);
+        }
+
+        String indexName = SearchServiceImpl.INDEX_ALIAS + "_" + new SimpleDateFormat("yyyyMMddHHmmss").format(new Date());
+        progress = new HouseReindexProgress(indexName, houseRepository.countByStatus(HouseStatus.PASSES.getValue()));
+        jobExecutor.submit(this::rebuild);
+        return ServiceResult.of(progress);
+    }
+
+    public HouseReindexProgress getProgress() {
+        return progress;
+    }
+
+    public boolean isRunning() {
+        return running.get();
+    }
+
+    /**
+     * 记录重建期间到达的索引消息
+     * @param message
+     */
+    public void record(HouseIndexMessage message) {
+        if (!recording) {
+            return;
+        }
+        if (HouseIndexMessage.UPDATE.equals(message.getOperation())) {
+            // 局部更新按整体重建重放 不覆盖已记录的操作
+            pendingReplay.putIfAbsent(message.getHouseId(), HouseIndexMessage.INDEX);
+        } else {
+            pendingReplay.put(message.getHouseId(), message.getOperation());
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        jobExecutor.shutdownNow();
+    }
+
+    private void rebuild() {
+        HouseReindexProgress progress = this.progress;
+        String indexName = progress.getIndexName();
+        Set<Long> failedHouseIds = ConcurrentHashMap.newKeySet();
+        ExecutorService workers = Executors.newFixedThreadPool(threads);
+        HouseIndexBulkProcessor bulkProcessor = null;
+        boolean loaded = false;
+        try {
+            String indexSource = loadIndexSource();
+            createIndex(indexName, indexSource);
+
+            pendingReplay.clear();
+            recording = true;
+
+            // 加入批量请求只是排队 写入成功或失败以批量请求的结果为准, 每个房源只计一次
+            bulkProcessor = new HouseIndexBulkProcessor(esClient, bulkActions, bulkSizeMb,
+                    bulkFlushIntervalMillis, bulkConcurrentRequests, indexHealth,
+                    messages -> progress.addProcessed(messages.size()), (message, reason) -> {
+                        failedHouseIds.add(message.getHouseId());
+                        progress.incrementFailed();
+                    });
+            RateLimiter rateLimiter = RateLimiter.create(maxDocsPerSecond);
+
+            Long lastId = 0L;
+            PageRequest pageRequest = new PageRequest(0, pageSize, new Sort(Sort.Direction.ASC, "id"));
+            while (true) {
+                List<House> houses = houseRepository.findAllByStatusAndIdGreaterThan(HouseStatus.PASSES.getValue(),
+                        lastId, pageRequest);
+                if (houses.isEmpty()) {
+                    break;
+                }
+                lastId = houses.get(houses.size() - 1).getId();
+
+                int partitionSize = (houses.size() + threads - 1) / threads;
+                List<Future<?>> futures = new ArrayList<>();
+                for (List<House> partition : Lists.partition(houses, partitionSize)) {
+                    HouseIndexBulkProcessor target = bulkProcessor;
+                    futures.add(workers.submit(() -> load(partition, indexName, target, rateLimiter,
+                            failedHouseIds, progress)));
+                }
+                for (Future<?> future : futures) {
+                    future.get();
+                }
+            }
+
+            boolean completed = bulkProcessor.close(60);
+            bulkProcessor = null;
+            if (!completed) {
+                throw new IllegalStateException("Bulk load into " + indexName + " did not finish in time");
+            }
+
+            restoreSettings(indexName, indexSource);
+            loaded = true;
+            swapAlias(indexName);
+
+            recording = false;
+            progress.finish(replay(failedHouseIds));
+            logger.info("Reindex into {} finished, processed {} houses, {} failed, {} replayed", indexName,
+                    progress.getProcessed(), progress.getFailed(), progress.getReplayed());
+        } catch (Exception e) {
+            logger.error("Reindex into " + indexName + " failed", e);
+            progress.fail(e.getMessage());
+            if (!loaded) {
+                // 别名未切换 旧索引仍在服务 直接丢弃新索引
+                deleteIndexQuietly(indexName);
+            }
+        } finally {
+            workers.shutdownNow();
+            if (bulkProcessor != null) {
+                bulkProcessor.close(0);
+            }
+            recording = false;
+            pendingReplay.clear();
+            running.set(false);
+        }
+    }
+
+    private void load(List<House> houses, String indexName, HouseIndexBulkProcessor bulkProcessor,
+                      RateLimiter rateLimiter, Set<Long> failedHouseIds, HouseReindexProgress progress) {
+        rateLimiter.acquire(houses.size());
+        // 集群过载时暂停导入 与索引消费端的背压一致
+        try {
+            while (indexHealth.isOverloaded()) {
+                Thread.sleep(HEALTH_CHECK_INTERVAL_MILLIS);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            houses.forEach(house -> {
+                failedHouseIds.add(house.getId());
+                progress.incrementFailed();
+            });
+            return;
+        }
+        Map<Long, ServiceResult<HouseIndexEnricher.EnrichedHouse>> results = indexEnricher.enrichHouses(houses);
+        results.forEach((houseId, result) -> {
+            if (!result.isSuccess()) {
+                logger.warn(result.getMessage());
+                failedHouseIds.add(houseId);
+                progress.incrementFailed();
+                return;
+            }
+
+            try {
+                byte[] source = objectMapper.writeValueAsBytes(result.getResult().getIndexTemplate());
+                bulkProcessor.add(new IndexRequest(indexName, SearchServiceImpl.INDEX_TYPE, String.valueOf(houseId))
+                        .source(source)
+                        .version(result.getResult().getHouse().getLastUpdateTime().getTime())
+                        .versionType(VersionType.EXTERNAL_GTE), new HouseIndexMessage(houseId, HouseIndexMessage.INDEX, 0));
+            } catch (JsonProcessingException e) {
+                logger.error("Error to index house " + houseId, e);
+                failedHouseIds.add(houseId);
+                progress.incrementFailed();
+            }
+        });
+    }
+
+    private String loadIndexSource() throws IOException {
+        try (InputStream inputStream = new ClassPathResource(INDEX_SOURCE_LOCATION).getInputStream()) {
+            return StreamUtils.copyToString(inputStream, StandardCharsets.UTF_8);
+        }
+    }
+
+    /**
+     * 创建新索引 导入期间关闭刷新与副本
+     */
+    private void createIndex(String indexName, String indexSource) {
+        IndicesAdminClient indices = esClient.admin().indices();
+        indices.prepareCreate(indexName).setSource(indexSource).get();
+        indices.prepareUpdateSettings(indexName)
+                .setSettings(Settings.builder()
+                        .put("index.refresh_interval", "-1")
+                        .put("index.number_of_replicas", 0)
+                        .build())
+                .get();
+    }
+
+    private void restoreSettings(String indexName, String indexSource) throws IOException {
+        int replicas = objectMapper.readTree(indexSource).path("settings").path("number_of_replicas").asInt(1);
+        IndicesAdminClient indices = esClient.admin().indices();
+        indices.prepareUpdateSettings(indexName)
+                .setSettings(Settings.builder()
+                        .put("index.refresh_interval", "1s")
+                        .put("index.number_of_replicas", replicas)
+                        .build())
+                .get();
+        indices.prepareRefresh(indexName).get();
+    }
+
+    private void swapAlias(String indexName) {
+        IndicesAdminClient indices = esClient.admin().indices();
+        ImmutableOpenMap<String, List<AliasMetaData>> aliases = indices
+                .prepareGetAliases(SearchServiceImpl.INDEX_ALIAS).get().getAliases();
+        List<String> oldIndices = new ArrayList<>();
+        for (ObjectObjectCursor<String, List<AliasMetaData>> cursor : aliases) {
+            if (!cursor.value.isEmpty()) {
+                oldIndices.add(cursor.key);
+            }
+        }
+
+        if (oldIndices.isEmpty() && indices.prepareExists(SearchServiceImpl.INDEX_ALIAS).get().isExists()) {
+            swapLegacyIndex(indexName);
+            return;
+        }
+
+        IndicesAliasesRequestBuilder aliasesRequest = indices.prepareAliases();
+        for (String oldIndex : oldIndices) {
+            aliasesRequest.removeAlias(oldIndex, SearchServiceImpl.INDEX_ALIAS);
+        }
+        aliasesRequest.addAlias(indexName, SearchServiceImpl.INDEX_ALIAS).get();
+        logger.info("Alias {} switched from {} to {}", SearchServiceImpl.INDEX_ALIAS, oldIndices, indexName);
+
+        if (deleteOldIndex && !oldIndices.isEmpty()) {
+            indices.prepareDelete(oldIndices.toArray(new String[oldIndices.size()])).get();
+        }
+    }
+
+    /**
+     * 首次切换: 旧索引与别名同名 需先删除才能创建别名, 两步无法合并为一次请求 期间会短暂不可用
+     * 空档内暂停接收索引消息; 仍有写入自动创建了同名索引时删除后重试, 这些写入已被记录 切换后会重放到新索引
+     * 多次重试仍失败时抛出异常 新索引保留 需人工为其添加别名
+     */
+    private void swapLegacyIndex(String indexName) {
+        IndicesAdminClient indices = esClient.admin().indices();
+        indexTransport.pause();
+        try {
+            // 等待合并窗口及条带队列中已接收的消息写完
+            Thread.sleep(swapQuiesceMillis);
+            for (int attempt = 1; ; attempt++) {
+                if (indices.prepareExists(SearchServiceImpl.INDEX_ALIAS).get().isExists()) {
+                    logger.warn("Deleting legacy index {} before creating alias", SearchServiceImpl.INDEX_ALIAS);
+                    indices.prepareDelete(SearchServiceImpl.INDEX_ALIAS).get();
+                }
+                try {
+                    indices.prepareAliases().addAlias(indexName, SearchServiceImpl.INDEX_ALIAS).get();
+                    logger.info("Alias {} created on {} in place of the legacy index", SearchServiceImpl.INDEX_ALIAS,
+                            indexName);
+                    return;
+                } catch (Exception e) {
+                    if (attempt >= SWAP_ATTEMPTS) {
+                        throw new IllegalStateException("Legacy index " + SearchServiceImpl.INDEX_ALIAS
+                                + " was deleted but the alias could not be added to " + indexName
+                                + ", searches have no index until the alias is added manually", e);
+                    }
+                    logger.warn("Add alias " + SearchServiceImpl.INDEX_ALIAS + " to " + indexName
+                            + " failed, attempt " + attempt, e);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while swapping legacy index " + SearchServiceImpl.INDEX_ALIAS, e);
+        } finally {
+            // 背压已暂停时由背压在集群恢复后恢复
+            if (!backpressure.isPaused()) {
+                indexTransport.resume();
+            }
+        }
+    }
+
+    /**
+     * 重放重建期间收到的消息及导入失败的房源 此时写入已经指向新索引
+     */
+    private long replay(Set<Long> failedHouseIds) {
+        Map<Long, String> replay = new HashMap<>(pendingReplay);
+        pendingReplay.clear();
+        failedHouseIds.forEach(houseId -> replay.putIfAbsent(houseId, HouseIndexMessage.INDEX));
+
+        replay.forEach((houseId, operation) -> {
+            if (HouseIndexMessage.REMOVE.equals(operation)) {
+                searchService.remove(houseId, IndexPriority.LOW);
+            } else {
+                searchService.index(houseId, IndexPriority.LOW);
+            }
+        });
+        return replay.size();
+    }
+
+    private void deleteIndexQuietly(String indexName) {
+        try {
+            if (esClient.admin().indices().prepareExists(indexName).get().isExists()) {
+                esClient.admin().indices().prepareDelete(indexName).get();
+            }
+        } catch (Exception e) {
+            logger.warn("Failed to delete index " + indexName, e);
+        }
+    }
+}
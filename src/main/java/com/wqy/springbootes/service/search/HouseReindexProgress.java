@@ -0,0 +1,98 @@
+package com.wqy.springbootes.service.search;
+
+import java.util.Date;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 全量重建索引进度
+ * Created by wqy.
+ */
+public class HouseReindexProgress {
+
+    public static final String RUNNING = "running";
+    public static final String SUCCESS = "success";
+    public static final String FAILED = "failed";
+
+    private final String indexName;
+
+    private final long total;
+
+    private final AtomicLong processed = new AtomicLong();
+
+    private final AtomicLong failed = new AtomicLong();
+
+    private volatile long replayed;
+
+    private volatile String status = RUNNING;
+
+    private volatile String message;
+
+    private final Date startTime = new Date();
+
+    private volatile Date endTime;
+
+    public HouseReindexProgress(String indexName, long total) {
+        this.indexName = indexName;
+        this.total = total;
+    }
+
+    /**
+     * 写入新索引成功的文档数 在批量请求成功后累加
+     * @param count
+     */
+    public void addProcessed(long count) {
+        processed.addAndGet(count);
+    }
+
+    public void incrementFailed() {
+        failed.incrementAndGet();
+    }
+
+    public void finish(long replayed) {
+        this.replayed = replayed;
+        this.status = SUCCESS;
+        this.endTime = new Date();
+    }
+
+    public void fail(String message) {
+        this.message = message;
+        this.status = FAILED;
+        this.endTime = new Date();
+    }
+
+    public String getIndexName() {
+        return indexName;
+    }
+
+    public long getTotal() {
+        return total;
+    }
+
+    public long getProcessed() {
+        return processed.get();
+    }
+
+    public long getFailed() {
+        return failed.get();
+    }
+
+    public long getReplayed() {
+        return replayed;
+    }
+
+    public String getStatus() {
+        return status;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+
+    public Date getStartTime() {
+        return startTime;
+    }
+
+    public Date getEndTime() {
+        return endTime;
+    }
+}
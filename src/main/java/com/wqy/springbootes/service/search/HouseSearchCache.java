@@ -0,0 +1,163 @@
+package com.wqy.springbootes.service.search;
+
+import com.google.common.base.Strings;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.wqy.springbootes.base.HouseSort;
+import com.wqy.springbootes.base.RentValueBlock;
+import com.wqy.springbootes.service.ServiceMultiResult;
+import com.wqy.springbootes.web.dto.RentSearch;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 租房搜索结果缓存 缓存规范化后的查询条件对应的houseId列表及总数
+ * 每个城市维护一个版本号并作为key的一部分, 城市有房源写入索引后版本号加一, 该城市之前的缓存不再命中, 由容量及过期时间淘汰
+ * 写入确认后要等到下一次刷新才对查询可见, 这段时间内的查询可能读到旧结果并以新版本号缓存
+ * 因此在可见延迟之后再把版本号加一 使这段时间写入的缓存同样失效
+ * 其他实例的写入经HouseIndexAppliedBroadcaster转发后同样使版本号加一; 广播丢失时旧结果最多保留ttl-seconds
+ * Created by wqy.
+ */
+@Component
+public class HouseSearchCache implements PublicMetrics {
+
+    @Value("${search.result-cache.enabled:true}")
+    private boolean enabled;
+
+    @Value("${search.result-cache.size:10000}")
+    private long maximumSize;
+
+    @Value("${search.result-cache.ttl-seconds:60}")
+    private long ttlSeconds;
+
+    /**
+     * 写入确认到对查询可见的最长时间 不小于索引的refresh_interval
+     */
+    @Value("${search.result-cache.visible-delay-ms:1500}")
+    private long visibleDelayMillis;
+
+    private final ScheduledExecutorService delayedInvalidator = Executors.newSingleThreadScheduledExecutor();
+
+    private Cache<String, ServiceMultiResult<Long>> cache;
+
+    private final Map<String, AtomicLong> cityGenerations = new ConcurrentHashMap<>();
+
+    /**
+     * 无法确定城市的写入 使所有城市的缓存失效
+     */
+    private final AtomicLong globalGeneration = new AtomicLong();
+
+    @PostConstruct
+    public void initCache() {
+        this.cache = CacheBuilder.newBuilder()
+                .maximumSize(maximumSize)
+                .expireAfterWrite(ttlSeconds, TimeUnit.SECONDS)
+                .recordStats()
+                .build();
+    }
+
+    /**
+     * 规范化查询条件 等价的条件得到相同的key
+     * @param rentSearch
+     * @return 未启用缓存时返回null
+     */
+    public String key(RentSearch rentSearch) {
+        if (!enabled) {
+            return null;
+        }
+        String city = Strings.nullToEmpty(rentSearch.getCityEnName());
+        String region = rentSearch.getRegionEnName() == null ? "*" : rentSearch.getRegionEnName();
+        return city + "|" + generation(city) + "|" + globalGeneration.get()
+                + "|" + region
+                + "|" + RentValueBlock.matchPrice(rentSearch.getPriceBlock()).getKey()
+                + "|" + RentValueBlock.matchArea(rentSearch.getAreaBlock()).getKey()
+                + "|" + Math.max(rentSearch.getDirection(), 0)
+                + "|" + rentSearch.getRentWay()
+                + "|" + HouseSort.getSortKey(rentSearch.getOrderBy())
+                + "|" + rentSearch.getOrderDirection()
+                + "|" + rentSearch.getStart()
+                + "|" + rentSearch.getSize()
+                + "|" + Strings.nullToEmpty(rentSearch.getCursor())
+                + "|" + Strings.nullToEmpty(rentSearch.getKeywords()).trim();
+    }
+
+    public ServiceMultiResult<Long> get(String key) {
+        return key == null ? null : cache.getIfPresent(key);
+    }
+
+    public void put(String key, ServiceMultiResult<Long> result) {
+        if (key != null) {
+            ServiceMultiResult<Long> copy = new ServiceMultiResult<>(result.getTotal(),
+                    Collections.unmodifiableList(new ArrayList<>(result.getResult())));
+            copy.setCursor(result.getCursor());
+            cache.put(key, copy);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        delayedInvalidator.shutdownNow();
+    }
+
+    @EventListener
+    public void onIndexApplied(HouseIndexAppliedEvent event) {
+        Set<String> cities = new HashSet<>();
+        for (HouseIndexMessage message : event.getMessages()) {
+            if (message.getCityEnName() == null) {
+                cities = null;
+                break;
+            }
+            cities.add(message.getCityEnName());
+        }
+        Set<String> invalidated = cities;
+        invalidate(invalidated);
+        delayedInvalidator.schedule(() -> invalidate(invalidated), visibleDelayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @param cities 为null时使所有城市失效
+     */
+    private void invalidate(Set<String> cities) {
+        if (cities == null) {
+            globalGeneration.incrementAndGet();
+            return;
+        }
+        cities.forEach(city -> cityGenerations.computeIfAbsent(city, key -> new AtomicLong()).incrementAndGet());
+    }
+
+    private long generation(String city) {
+        AtomicLong generation = cityGenerations.get(city);
+        return generation == null ? 0 : generation.get();
+    }
+
+    @Override
+    public Collection<Metric<?>> metrics() {
+        CacheStats stats = cache.stats();
+        List<Metric<?>> metrics = new ArrayList<>();
+        metrics.add(new Metric<>("search.result-cache.size", cache.size()));
+        metrics.add(new Metric<>("search.result-cache.hits", stats.hitCount()));
+        metrics.add(new Metric<>("search.result-cache.misses", stats.missCount()));
+        metrics.add(new Metric<>("search.result-cache.hit-ratio", stats.hitRate()));
+        metrics.add(new Metric<>("search.result-cache.evictions", stats.evictionCount()));
+        return metrics;
+    }
+}
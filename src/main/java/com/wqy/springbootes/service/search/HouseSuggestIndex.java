@@ -0,0 +1,333 @@
+package com.wqy.springbootes.service.search;
+
+import com.google.common.base.Strings;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.client.transport.TransportClient;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.index.query.QueryBuilders;
+import org.elasticsearch.search.SearchHit;
+import org.elasticsearch.search.sort.SortOrder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 自动补全的进程内前缀索引 补全词按字典序存放在跳表中, 权重为包含该词的房源权重之和
+ * 启动后及定时从ES全量加载, 之间由写入成功的索引消息增量更新(包括经广播收到的其他实例的写入);
+ * 广播丢失时最多在下一次全量加载后修正. 加载完成前返回null 由调用方回退到ES补全查询
+ * Created by wqy.
+ */
+@Component
+public class HouseSuggestIndex implements PublicMetrics {
+
+    private static final Logger logger = LoggerFactory.getLogger(HouseSuggestIndex.class);
+
+    private static final TimeValue SCROLL_KEEP_ALIVE = TimeValue.timeValueMinutes(1);
+
+    private static final int PAGE_SIZE = 500;
+
+    /**
+     * 不超过该长度的前缀结果缓存到下一次写入
+     */
+    private static final int SHORT_PREFIX_LENGTH = 2;
+
+    @Autowired
+    private TransportClient esClient;
+
+    @Value("${search.suggest.local.enabled:true}")
+    private boolean enabled;
+
+    @Value("${search.suggest.local.size:5}")
+    private int suggestSize;
+
+    /**
+     * 单次查找最多遍历的补全词数
+     */
+    @Value("${search.suggest.local.max-scan:2000}")
+    private int maxScan;
+
+    /**
+     * 当前使用的索引 null表示尚未加载完成
+     */
+    private volatile PrefixIndex current;
+
+    /**
+     * 全量加载期间到达的消息 加载完成后重放到新索引 由lock保护
+     */
+    private List<HouseIndexMessage> pendingMessages;
+
+    private final Object lock = new Object();
+
+    private final AtomicBoolean rebuilding = new AtomicBoolean(false);
+
+    private final AtomicLong hits = new AtomicLong();
+
+    private final AtomicLong fallbacks = new AtomicLong();
+
+    private final AtomicLong rebuilds = new AtomicLong();
+
+    /**
+     * 按前缀查找权重最高的补全词
+     * @param prefix
+     * @return 未启用或尚未加载完成时返回null
+     */
+    public List<String> lookup(String prefix) {
+        PrefixIndex index = current;
+        if (!enabled || index == null) {
+            fallbacks.incrementAndGet();
+            return null;
+        }
+        hits.incrementAndGet();
+        return index.lookup(Strings.nullToEmpty(prefix).trim(), suggestSize);
+    }
+
+    @EventListener
+    public void onIndexApplied(HouseIndexAppliedEvent event) {
+        if (!enabled) {
+            return;
+        }
+        synchronized (lock) {
+            PrefixIndex index = current;
+            if (index != null) {
+                index.apply(event.getMessages());
+            }
+            if (pendingMessages != null) {
+                pendingMessages.addAll(event.getMessages());
+            }
+        }
+    }
+
+    /**
+     * 从ES全量加载 修正增量更新遗漏的变化(如全量重建索引) 加载期间继续使用旧索引
+     */
+    @Scheduled(initialDelayString = "${search.suggest.local.initial-delay-ms:10000}",
+            fixedDelayString = "${search.suggest.local.rebuild-interval-ms:600000}")
+    public void rebuild() {
+        if (!enabled || !rebuilding.compareAndSet(false, true)) {
+            return;
+        }
+        synchronized (lock) {
+            pendingMessages = new ArrayList<>();
+        }
+
+        PrefixIndex index = null;
+        try {
+            long start = System.currentTimeMillis();
+            index = load();
+            logger.info("Suggest index loaded {} terms of {} houses in {} ms", index.termCount(),
+                    index.houseCount(), System.currentTimeMillis() - start);
+        } catch (Exception e) {
+            logger.error("Load suggest index failed", e);
+        } finally {
+            synchronized (lock) {
+                if (index != null) {
+                    index.apply(pendingMessages);
+                    current = index;
+                    rebuilds.incrementAndGet();
+                }
+                pendingMessages = null;
+            }
+            rebuilding.set(false);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private PrefixIndex load() {
+        PrefixIndex index = new PrefixIndex(maxScan);
+        SearchResponse response = esClient.prepareSearch(SearchServiceImpl.INDEX_ALIAS)
+                .setTypes(SearchServiceImpl.INDEX_TYPE)
+                .setQuery(QueryBuilders.matchAllQuery())
+                .setFetchSource(HouseIndexKey.SUGGEST, null)
+                .addSort("_doc", SortOrder.ASC)
+                .setScroll(SCROLL_KEEP_ALIVE)
+                .setSize(PAGE_SIZE)
+                .get();
+        try {
+            while (response.getHits().getHits().length > 0) {
+                for (SearchHit hit : response.getHits()) {
+                    Long houseId;
+                    try {
+                        houseId = Long.parseLong(hit.getId());
+                    } catch (NumberFormatException e) {
+                        continue;
+                    }
+
+                    Object suggests = hit.getSource() == null ? null : hit.getSource().get(HouseIndexKey.SUGGEST);
+                    if (!(suggests instanceof List)) {
+                        continue;
+                    }
+                    Map<String, Integer> terms = new HashMap<>();
+                    for (Object suggest : (List<Object>) suggests) {
+                        if (suggest instanceof Map) {
+                            Object input = ((Map<String, Object>) suggest).get("input");
+                            Object weight = ((Map<String, Object>) suggest).get("weight");
+                            if (input instanceof String) {
+                                terms.put((String) input, weight instanceof Number ? ((Number) weight).intValue() : 1);
+                            }
+                        }
+                    }
+                    index.put(houseId, terms);
+                }
+                response = esClient.prepareSearchScroll(response.getScrollId())
+                        .setScroll(SCROLL_KEEP_ALIVE)
+                        .get();
+            }
+        } finally {
+            esClient.prepareClearScroll().addScrollId(response.getScrollId()).get();
+        }
+        return index;
+    }
+
+    @Override
+    public Collection<Metric<?>> metrics() {
+        List<Metric<?>> metrics = new ArrayList<>();
+        PrefixIndex index = current;
+        metrics.add(new Metric<>("search.suggest.local.loaded", index == null ? 0 : 1));
+        metrics.add(new Metric<>("search.suggest.local.terms", index == null ? 0 : index.termCount()));
+        metrics.add(new Metric<>("search.suggest.local.hits", hits.get()));
+        metrics.add(new Metric<>("search.suggest.local.fallbacks", fallbacks.get()));
+        metrics.add(new Metric<>("search.suggest.local.rebuilds", rebuilds.get()));
+        return metrics;
+    }
+
+    /**
+     * 补全词到权重的有序映射 以及每个房源贡献的补全词
+     * 补全词以小写形式作为key 与ES补全的大小写不敏感一致, 返回时使用原始写法
+     * 写操作在lock内串行执行(加载阶段只有加载线程访问) 读操作无锁
+     */
+    private static class PrefixIndex {
+
+        private final ConcurrentSkipListMap<String, Integer> weights = new ConcurrentSkipListMap<>();
+
+        /**
+         * 小写key到原始写法
+         */
+        private final Map<String, String> displays = new ConcurrentHashMap<>();
+
+        private final Map<Long, Map<String, Integer>> houseTerms = new HashMap<>();
+
+        private final int maxScan;
+
+        /**
+         * 短前缀匹配的补全词多 结果缓存到下一次写入 每次写入后整体替换
+         */
+        private volatile Map<String, List<String>> shortPrefixResults = new ConcurrentHashMap<>();
+
+        PrefixIndex(int maxScan) {
+            this.maxScan = maxScan;
+        }
+
+        void apply(List<HouseIndexMessage> messages) {
+            for (HouseIndexMessage message : messages) {
+                if (HouseIndexMessage.REMOVE.equals(message.getOperation())) {
+                    remove(message.getHouseId());
+                } else if (HouseIndexMessage.INDEX.equals(message.getOperation()) && message.getSuggests() != null) {
+                    Map<String, Integer> terms = new HashMap<>();
+                    for (HouseSuggest suggest : message.getSuggests()) {
+                        if (suggest.getInput() != null) {
+                            terms.put(suggest.getInput(), suggest.getWeight());
+                        }
+                    }
+                    put(message.getHouseId(), terms);
+                }
+            }
+            shortPrefixResults = new ConcurrentHashMap<>();
+        }
+
+        /**
+         * @param terms 原始写法的补全词到权重
+         */
+        void put(Long houseId, Map<String, Integer> terms) {
+            remove(houseId);
+            Map<String, Integer> keys = new HashMap<>();
+            terms.forEach((term, weight) -> {
+                String key = term.toLowerCase(Locale.ROOT);
+                if (keys.putIfAbsent(key, weight) == null) {
+                    displays.put(key, term);
+                    weights.merge(key, weight, Integer::sum);
+                }
+            });
+            houseTerms.put(houseId, keys);
+        }
+
+        void remove(Long houseId) {
+            Map<String, Integer> keys = houseTerms.remove(houseId);
+            if (keys != null) {
+                keys.forEach((key, weight) -> {
+                    if (weights.computeIfPresent(key, (term, value) -> value > weight ? value - weight : null) == null) {
+                        displays.remove(key);
+                    }
+                });
+            }
+        }
+
+        List<String> lookup(String prefix, int size) {
+            if (prefix.isEmpty()) {
+                return new ArrayList<>();
+            }
+            String key = prefix.toLowerCase(Locale.ROOT);
+            if (key.length() > SHORT_PREFIX_LENGTH) {
+                return scan(key, size);
+            }
+            Map<String, List<String>> results = shortPrefixResults;
+            return results.computeIfAbsent(key, term -> Collections.unmodifiableList(scan(term, size)));
+        }
+
+        /**
+         * 遍历以prefix开头的补全词 保留权重最高的size个 按权重从高到低返回
+         * 最多遍历maxScan个补全词
+         */
+        private List<String> scan(String prefix, int size) {
+            ConcurrentNavigableMap<String, Integer> range = weights.subMap(prefix, true,
+                    prefix + Character.MAX_VALUE, false);
+            PriorityQueue<Map.Entry<String, Integer>> top = new PriorityQueue<>(size + 1,
+                    (left, right) -> Integer.compare(left.getValue(), right.getValue()));
+            int scanned = 0;
+            for (Map.Entry<String, Integer> entry : range.entrySet()) {
+                if (++scanned > maxScan) {
+                    break;
+                }
+                top.offer(entry);
+                if (top.size() > size) {
+                    top.poll();
+                }
+            }
+
+            List<String> result = new ArrayList<>();
+            while (!top.isEmpty()) {
+                String term = top.poll().getKey();
+                result.add(displays.getOrDefault(term, term));
+            }
+            Collections.reverse(result);
+            return result;
+        }
+
+        int termCount() {
+            return weights.size();
+        }
+
+        int houseCount() {
+            return houseTerms.size();
+        }
+    }
+}
@@ -0,0 +1,36 @@
+package com.wqy.springbootes.service.search;
+
+import com.wqy.springbootes.entity.HouseIndexDeadLetter;
+import com.wqy.springbootes.service.ServiceMultiResult;
+import com.wqy.springbootes.service.ServiceResult;
+
+import java.util.List;
+
+/**
+ * 索引死信管理
+ * Created by wqy.
+ */
+public interface IDeadLetterService {
+
+    /**
+     * 记录重试耗尽的索引消息
+     * @param message
+     */
+    void record(HouseIndexMessage message);
+
+    /**
+     * 分页查询死信
+     * @param status
+     * @param start
+     * @param size
+     * @return
+     */
+    ServiceMultiResult<HouseIndexDeadLetter> list(int status, int start, int size);
+
+    /**
+     * 按限速将死信重新投递到索引主题
+     * @param ids 为空时重放全部待处理死信
+     * @return 进入重放的条数
+     */
+    ServiceResult<Long> replay(List<Long> ids);
+}
@@ -1,5 +1,6 @@
 package com.wqy.springbootes.service.search;
 
+import com.wqy.springbootes.base.IndexPriority;
 import com.wqy.springbootes.service.ServiceMultiResult;
 import com.wqy.springbootes.service.ServiceResult;
 import com.wqy.springbootes.web.dto.RentSearch;
@@ -8,6 +9,7 @@ import com.wqy.springbootes.web.form.MapSearch;
 
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * 检索接口
@@ -20,15 +22,43 @@ public interface ISearchService {
      */
     void index(Long houseId);
 
+    /**
+     * 按指定优先级索引目标房源 批量任务使用LOW 不占用交互操作的索引通道
+     * @param houseId
+     * @param priority
+     */
+    void index(Long houseId, IndexPriority priority);
+
     /**
      * 移除房源索引
      * @param houseId
      */
     void remove(Long houseId);
 
+    void remove(Long houseId, IndexPriority priority);
 
+    /**
+     * 局部更新房源索引 只写入变化的字段
+     * @param houseId
+     * @param fields 索引字段名到新值
+     */
+    void update(Long houseId, Map<String, Object> fields);
+
+
+    /**
+     * @param rentSearch
+     * @return
+     * @throws IllegalArgumentException 分页游标无效或不是由当前排序方式生成
+     */
     ServiceMultiResult<Long> query(RentSearch rentSearch);
 
+    /**
+     * 异步查询 ES响应返回后在回调中完成
+     * @param rentSearch
+     * @return
+     */
+    CompletableFuture<ServiceMultiResult<Long>> queryAsync(RentSearch rentSearch);
+
     /**
      * 获取补全建议关键词
      * @param prefix
@@ -36,15 +66,21 @@ public interface ISearchService {
      */
     ServiceResult<List<String>> suggest(String prefix);
 
+    CompletableFuture<ServiceResult<List<String>>> suggestAsync(String prefix);
+
 
     ServiceResult<Long> aggregateDistrictHouse(String cityName,String regionEnName,String district);
 
+    CompletableFuture<ServiceResult<Long>> aggregateDistrictHouseAsync(String cityName,String regionEnName,String district);
+
     /**
      * 聚合城市数据
      * @return
      */
     ServiceMultiResult<HouseBucketDTO> mapAggregate(String cityEnName);
 
+    CompletableFuture<ServiceMultiResult<HouseBucketDTO>> mapAggregateAsync(String cityEnName);
+
     /**
      * 城市级别查询
      * @param cityEnName
@@ -52,9 +88,13 @@ public interface ISearchService {
      * @param orderDirection
      * @param start
      * @param size
+     * @param cursor 上一页返回的游标 首页为null
      * @return
+     * @throws IllegalArgumentException 游标无效或不是由当前排序方式生成
      */
-    ServiceMultiResult<Long> mapQuery(String cityEnName,String orderBy,String orderDirection,int start ,int size);
+    ServiceMultiResult<Long> mapQuery(String cityEnName,String orderBy,String orderDirection,int start ,int size,String cursor);
+
+    CompletableFuture<ServiceMultiResult<Long>> mapQueryAsync(String cityEnName,String orderBy,String orderDirection,int start ,int size,String cursor);
 
     /**
      * 精确范围查询
@@ -63,6 +103,8 @@ public interface ISearchService {
      */
     ServiceMultiResult<Long> mapQuery(MapSearch mapSearch);
 
+    CompletableFuture<ServiceMultiResult<Long>> mapQueryAsync(MapSearch mapSearch);
+
 
 
 }
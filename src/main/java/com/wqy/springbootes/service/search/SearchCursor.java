@@ -0,0 +1,158 @@
+package com.wqy.springbootes.service.search;
+
+import com.google.common.base.Splitter;
+import com.google.common.primitives.Doubles;
+import com.google.common.primitives.Longs;
+import org.elasticsearch.search.SearchHit;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.List;
+
+/**
+ * 分页游标 记录上一页最后一条结果的排序值(排序字段 + houseId) 下一页从该位置之后继续
+ * 排序值保留原始类型(整数、小数、字符串), 缺少排序字段的文档排在最后 其排序值记为缺失
+ * 对调用方不透明 排序方式与生成游标时不一致或无法解析时拒绝
+ * Created by wqy.
+ */
+final class SearchCursor {
+
+    private static final String SEPARATOR = ":";
+
+    private static final String MISSING = "_";
+
+    private static final char LONG = 'L';
+
+    private static final char DOUBLE = 'D';
+
+    private static final char STRING = 'S';
+
+    /**
+     * 为null时表示该文档缺少排序字段
+     */
+    private final Object sortValue;
+
+    private final long houseId;
+
+    SearchCursor(Object sortValue, long houseId) {
+        this.sortValue = sortValue;
+        this.houseId = houseId;
+    }
+
+    Object getSortValue() {
+        return sortValue;
+    }
+
+    boolean isMissing() {
+        return sortValue == null;
+    }
+
+    long getHouseId() {
+        return houseId;
+    }
+
+    /**
+     * 以最后一条结果生成下一页游标
+     * @return 排序值类型不支持时返回null
+     */
+    static String encode(String sortKey, String orderDirection, SearchHit lastHit) {
+        return encode(sortKey, orderDirection, lastHit.getSortValues());
+    }
+
+    /**
+     * @param sortValues 排序字段与houseId的排序值 缺少排序字段时为ES填充的极值
+     * @return 排序值类型不支持时返回null
+     */
+    static String encode(String sortKey, String orderDirection, Object[] sortValues) {
+        if (sortValues.length != 2 || !(sortValues[1] instanceof Number)) {
+            return null;
+        }
+        boolean desc = "DESC".equals(orderDirection);
+        String sortValue = isMissingValue(sortValues[0], desc) ? MISSING : encodeValue(sortValues[0]);
+        if (sortValue == null) {
+            return null;
+        }
+        String text = sortKey + SEPARATOR + orderDirection + SEPARATOR + sortValue
+                + SEPARATOR + ((Number) sortValues[1]).longValue();
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * 解析游标
+     * @throws IllegalArgumentException 游标无法解析或不是由当前排序方式生成
+     */
+    static SearchCursor decode(String cursor, String sortKey, String orderDirection) {
+        List<String> parts;
+        try {
+            parts = Splitter.on(SEPARATOR).splitToList(
+                    new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Malformed search cursor: " + cursor, e);
+        }
+        if (parts.size() != 4) {
+            throw new IllegalArgumentException("Malformed search cursor: " + cursor);
+        }
+        if (!sortKey.equals(parts.get(0)) || !orderDirection.equals(parts.get(1))) {
+            throw new IllegalArgumentException("Search cursor was created for sort " + parts.get(0) + " "
+                    + parts.get(1) + ", not " + sortKey + " " + orderDirection);
+        }
+
+        Object sortValue = MISSING.equals(parts.get(2)) ? null : decodeValue(parts.get(2));
+        Long houseId = Longs.tryParse(parts.get(3));
+        if ((sortValue == null && !MISSING.equals(parts.get(2))) || houseId == null) {
+            throw new IllegalArgumentException("Malformed search cursor: " + cursor);
+        }
+        return new SearchCursor(sortValue, houseId);
+    }
+
+    /**
+     * missing为_last时ES以排序方向上的极值填充缺失字段的排序值
+     */
+    private static boolean isMissingValue(Object value, boolean desc) {
+        if (value == null) {
+            return true;
+        }
+        if (value instanceof Long) {
+            return (Long) value == (desc ? Long.MIN_VALUE : Long.MAX_VALUE);
+        }
+        if (value instanceof Double) {
+            return (Double) value == (desc ? Double.NEGATIVE_INFINITY : Double.POSITIVE_INFINITY);
+        }
+        return false;
+    }
+
+    private static String encodeValue(Object value) {
+        if (value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte) {
+            return LONG + String.valueOf(((Number) value).longValue());
+        }
+        if (value instanceof Double || value instanceof Float) {
+            return DOUBLE + String.valueOf(((Number) value).doubleValue());
+        }
+        if (value instanceof String) {
+            return STRING + Base64.getUrlEncoder().withoutPadding()
+                    .encodeToString(((String) value).getBytes(StandardCharsets.UTF_8));
+        }
+        return null;
+    }
+
+    private static Object decodeValue(String part) {
+        if (part.isEmpty()) {
+            return null;
+        }
+        String value = part.substring(1);
+        switch (part.charAt(0)) {
+            case LONG:
+                return Longs.tryParse(value);
+            case DOUBLE:
+                return Doubles.tryParse(value);
+            case STRING:
+                try {
+                    return new String(Base64.getUrlDecoder().decode(value), StandardCharsets.UTF_8);
+                } catch (IllegalArgumentException e) {
+                    return null;
+                }
+            default:
+                return null;
+        }
+    }
+}
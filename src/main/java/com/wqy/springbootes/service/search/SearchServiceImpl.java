@@ -4,35 +4,30 @@ import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.common.collect.Lists;
 import com.google.common.primitives.Longs;
+import com.google.common.util.concurrent.RateLimiter;
 import com.wqy.springbootes.base.HouseSort;
+import com.wqy.springbootes.base.HouseStatus;
+import com.wqy.springbootes.base.IndexPriority;
 import com.wqy.springbootes.base.RentValueBlock;
 import com.wqy.springbootes.entity.House;
-import com.wqy.springbootes.entity.HouseDetail;
-import com.wqy.springbootes.entity.HouseTag;
-import com.wqy.springbootes.entity.SupportAddress;
-import com.wqy.springbootes.repository.HouseDetailRepository;
+import com.wqy.springbootes.entity.HouseIndexOutbox;
+import com.wqy.springbootes.repository.HouseIndexOutboxRepository;
 import com.wqy.springbootes.repository.HouseRepository;
-import com.wqy.springbootes.repository.HouseTagRepository;
-import com.wqy.springbootes.repository.SupportAddressRepository;
 import com.wqy.springbootes.service.ServiceMultiResult;
 import com.wqy.springbootes.service.ServiceResult;
 import com.wqy.springbootes.service.house.IAddressService;
 import com.wqy.springbootes.web.dto.RentSearch;
 import com.wqy.springbootes.web.form.MapSearch;
 import org.elasticsearch.action.ActionRequestBuilder;
-import org.elasticsearch.action.admin.indices.analyze.AnalyzeAction;
-import org.elasticsearch.action.admin.indices.analyze.AnalyzeRequestBuilder;
-import org.elasticsearch.action.admin.indices.analyze.AnalyzeResponse;
-import org.elasticsearch.action.delete.DeleteAction;
-import org.elasticsearch.action.delete.DeleteRequestBuilder;
-import org.elasticsearch.action.delete.DeleteResponse;
-import org.elasticsearch.action.index.IndexResponse;
+import org.elasticsearch.action.delete.DeleteRequest;
+import org.elasticsearch.action.index.IndexRequest;
 import org.elasticsearch.action.search.SearchRequestBuilder;
 import org.elasticsearch.action.search.SearchResponse;
-import org.elasticsearch.action.update.UpdateResponse;
+import org.elasticsearch.action.update.UpdateRequest;
 import org.elasticsearch.client.transport.TransportClient;
 import org.elasticsearch.common.geo.GeoPoint;
 import org.elasticsearch.common.xcontent.XContentType;
+import org.elasticsearch.index.VersionType;
 import org.elasticsearch.index.engine.Engine;
 import org.elasticsearch.index.query.BoolQueryBuilder;
 import org.elasticsearch.index.query.QueryBuilder;
@@ -42,279 +37,455 @@ import org.elasticsearch.rest.RestStatus;
 import org.elasticsearch.search.SearchHit;
 import org.elasticsearch.search.aggregations.AggregationBuilder;
 import org.elasticsearch.search.aggregations.AggregationBuilders;
+import org.elasticsearch.search.aggregations.bucket.filter.Filter;
 import org.elasticsearch.search.aggregations.bucket.terms.Terms;
+import org.elasticsearch.search.sort.SortBuilders;
 import org.elasticsearch.search.sort.SortOrder;
 import org.elasticsearch.search.suggest.Suggest;
 import org.elasticsearch.search.suggest.SuggestBuilder;
 import org.elasticsearch.search.suggest.SuggestBuilders;
 import org.elasticsearch.search.suggest.completion.CompletionSuggestion;
 import org.elasticsearch.search.suggest.completion.CompletionSuggestionBuilder;
-import org.modelmapper.ModelMapper;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.kafka.annotation.KafkaListener;
-import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.stereotype.Service;
 
-import java.io.IOException;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 
 import static org.elasticsearch.index.query.QueryBuilders.geoBoundingBoxQuery;
 
 
 @Service
-public class SearchServiceImpl implements ISearchService {
+public class SearchServiceImpl implements ISearchService, HouseIndexMessageHandler {
 
     private static final Logger logger = LoggerFactory.getLogger(ISearchService.class);
 
-    private static final String INDEX_NAME = "xunwu";
+    /**
+     * 索引别名 读写均经由别名 实际索引由重建任务按版本创建并原子切换
+     */
+    static final String INDEX_ALIAS = "xunwu";
 
-    private static final String INDEX_TYPE = "house";
+    static final String INDEX_TYPE = "house";
 
-    private static final String INDEX_TOPIC = "house_build";
+    private static final int UPDATE_RETRY_ON_CONFLICT = 3;
+
+    private static final String UNFILTERED_TOTAL_AGG = "unfiltered_total";
 
     @Autowired
     private HouseRepository houseRepository;
 
     @Autowired
-    private HouseDetailRepository houseDetailRepository;
+    private IAddressService addressService;
 
     @Autowired
-    private HouseTagRepository tagRepository;
+    private HouseIndexEnricher indexEnricher;
 
     @Autowired
-    private SupportAddressRepository supportAddressRepository;
+    private HouseReindexJob reindexJob;
 
     @Autowired
-    private IAddressService addressService;
+    private TransportClient esClient;
 
     @Autowired
-    private ModelMapper modelMapper;
+    private EsAsyncExecutor esExecutor;
 
     @Autowired
-    private TransportClient esClient;
+    private ObjectMapper objectMapper;
 
     @Autowired
-    private ObjectMapper objectMapper;
+    private HouseIndexTransport indexTransport;
 
     @Autowired
-    private KafkaTemplate<String,String> kafkaTemplate;
+    private HouseIndexCoalescer indexCoalescer;
 
-    @KafkaListener(topics = INDEX_TOPIC)
-    private void handleMessage(String content){
+    @Autowired
+    private HouseIndexOutboxRepository outboxRepository;
 
-        try {
-            HouseIndexMessage message = objectMapper.readValue(content,HouseIndexMessage.class);
+    @Autowired
+    private HouseIndexHealth indexHealth;
 
-            switch (message.getOperation()){
-                case HouseIndexMessage.INDEX:
-                    this.createOrUpdateIndex(message);
-                    break;
-                case HouseIndexMessage.REMOVE:
-                    this.removeIndex(message);
-                    break;
-                default:
-                    logger.warn("Not support message content "+content);
-                    break;
+    @Autowired
+    private HouseIndexIdempotency indexIdempotency;
 
-            }
-        } catch (IOException e) {
-            logger.error("Cannot parse json for "+content,e);
-        }
+    @Autowired
+    private HouseSearchCache searchCache;
+
+    @Autowired
+    private ApplicationEventPublisher eventPublisher;
+
+    @Autowired
+    private HouseSuggestIndex suggestIndex;
+
+    @Autowired
+    private HouseDistrictCounts districtCounts;
+
+    @Value("${search.bulk.actions:500}")
+    private int bulkActions;
+
+    @Value("${search.bulk.size-mb:5}")
+    private int bulkSizeMb;
+
+    @Value("${search.bulk.flush-interval-ms:1000}")
+    private long bulkFlushIntervalMillis;
+
+    @Value("${search.bulk.concurrent-requests:1}")
+    private int bulkConcurrentRequests;
+
+    @Value("${search.index.threads:4}")
+    private int indexThreads;
+
+    @Value("${search.index.queue-capacity:1000}")
+    private int indexQueueCapacity;
+
+    @Value("${search.lane.interactive.max-docs-per-second:1000}")
+    private double interactiveMaxDocsPerSecond;
+
+    @Value("${search.lane.bulk.max-docs-per-second:100}")
+    private double bulkMaxDocsPerSecond;
+
+    @Value("${search.lane.bulk.threads:1}")
+    private int bulkIndexThreads;
+
+    private HouseIndexBulkProcessor bulkProcessor;
+
+    /**
+     * 交互操作与批量任务各自的写入线程及吞吐上限 批量任务积压不会排在交互操作之前
+     */
+    private HouseIndexStripedExecutor indexExecutor;
+
+    private HouseIndexStripedExecutor bulkIndexExecutor;
+
+    /**
+     * 房源有未处理完的消息时由持有它的通道继续处理 两个通道之间不乱序
+     */
+    private final HouseIndexOwners<HouseIndexStripedExecutor> indexOwners = new HouseIndexOwners<>();
+
+    private RateLimiter interactiveRateLimiter;
+
+    private RateLimiter bulkRateLimiter;
+
+    @PostConstruct
+    public void initBulkProcessor() {
+        this.bulkProcessor = new HouseIndexBulkProcessor(esClient, bulkActions, bulkSizeMb,
+                bulkFlushIntervalMillis, bulkConcurrentRequests, indexHealth, this::onIndexApplied,
+                indexTransport::retry);
+        this.indexExecutor = new HouseIndexStripedExecutor(indexThreads, indexQueueCapacity);
+        this.bulkIndexExecutor = new HouseIndexStripedExecutor(bulkIndexThreads, indexQueueCapacity);
+        this.interactiveRateLimiter = RateLimiter.create(interactiveMaxDocsPerSecond);
+        this.bulkRateLimiter = RateLimiter.create(bulkMaxDocsPerSecond);
+        indexCoalescer.start(this::dispatchMessages);
     }
 
-    private void removeIndex(HouseIndexMessage message) {
-       Long houseId = message.getHouseId();
-        DeleteRequestBuilder deleteBuilder = this.esClient.prepareDelete(INDEX_NAME,INDEX_TYPE, String.valueOf(houseId));
-        DeleteResponse response =deleteBuilder.get();
-        int total = response.getShardInfo().getTotal();
-        //Boolean deleted=response.isFound();
-        ServiceResult serviceResult = addressService.removeLbs(houseId);
-        if (!serviceResult.isSuccess()||total<1) {
-            logger.warn("Did not remove data from es for response: "+response);
-            // 重新加入消息队列
-            remove(houseId,message.getRetry()+1);
+    /**
+     * 停机时写入合并窗口内的消息并提交剩余的批量请求 避免已消费的消息丢失
+     */
+    @PreDestroy
+    public void closeBulkProcessor() {
+        indexCoalescer.stop();
+        boolean interactiveFinished = indexExecutor.shutdown(30);
+        if (!bulkIndexExecutor.shutdown(30) || !interactiveFinished) {
+            logger.warn("Index executor did not finish all pending messages before shutdown");
         }
+        if (!bulkProcessor.close(30)) {
+            logger.warn("Bulk processor did not finish all pending requests before shutdown");
+        }
+    }
 
+    /**
+     * 写入成功的消息 记录幂等版本并通知缓存等监听方
+     * @param messages
+     */
+    private void onIndexApplied(List<HouseIndexMessage> messages) {
+        indexIdempotency.markApplied(messages);
+        eventPublisher.publishEvent(new HouseIndexAppliedEvent(this, messages));
     }
 
-    private void remove(Long houseId, int retry) {
-        if(retry>HouseIndexMessage.MAX_RETRY){
-            logger.error("Retry index times over 3 for house: "+houseId+" Please check it!");
-            return;
+    /**
+     * 按所在通道的吞吐上限限速后进入合并窗口
+     * @param messages
+     * @param priority
+     */
+    @Override
+    public CompletableFuture<Void> handle(List<HouseIndexMessage> messages, IndexPriority priority) {
+        if (messages.isEmpty()) {
+            return CompletableFuture.completedFuture(null);
+        }
+        (priority == IndexPriority.LOW ? bulkRateLimiter : interactiveRateLimiter).acquire(messages.size());
+        // 重建期间到达的消息需在别名切换后重放到新索引
+        messages.forEach(reindexJob::record);
+        CompletableFuture<?>[] done = new CompletableFuture<?>[messages.size()];
+        for (int i = 0; i < done.length; i++) {
+            done[i] = messages.get(i).getDone();
+        }
+        indexCoalescer.submit(messages);
+        return CompletableFuture.allOf(done);
+    }
+
+    /**
+     * 合并后的消息按优先级分通道 再按房源分派到条带 同一条带内同一房源的消息始终顺序处理
+     * 房源在另一通道上还有未处理完的消息时跟随该通道, 否则交互操作可能越过之前排队的批量消息
+     * 批量通道的条带已满时消息放回合并窗口 不阻塞交互操作的分派
+     * @param messages
+     */
+    private void dispatchMessages(List<HouseIndexMessage> messages) {
+        Map<Integer, List<HouseIndexMessage>> stripeMessages = new HashMap<>();
+        Map<Integer, List<HouseIndexMessage>> bulkStripeMessages = new HashMap<>();
+        for (HouseIndexMessage message : messages) {
+            HouseIndexStripedExecutor preferred = message.getPriority() == IndexPriority.LOW.getValue()
+                    ? bulkIndexExecutor : indexExecutor;
+            HouseIndexStripedExecutor owner = indexOwners.claim(message.getHouseId(), preferred);
+            (owner == bulkIndexExecutor ? bulkStripeMessages : stripeMessages)
+                    .computeIfAbsent(owner.stripeOf(message.getHouseId()), key -> new ArrayList<>())
+                    .add(message);
+        }
+        stripeMessages.forEach((stripe, batch) -> indexExecutor.execute(stripe, () -> handleOwnedMessages(batch)));
+
+        bulkStripeMessages.forEach((stripe, batch) -> {
+            if (!bulkIndexExecutor.tryExecute(stripe, () -> handleOwnedMessages(batch))) {
+                releaseOwners(batch);
+                indexCoalescer.requeue(batch);
+            }
+        });
+    }
+
+    private void handleOwnedMessages(List<HouseIndexMessage> messages) {
+        try {
+            handleCoalescedMessages(messages);
+        } finally {
+            releaseOwners(messages);
         }
-        HouseIndexMessage message = new HouseIndexMessage(houseId,HouseIndexMessage.REMOVE,retry);
+    }
+
+    private void releaseOwners(List<HouseIndexMessage> messages) {
+        messages.forEach(message -> indexOwners.release(message.getHouseId()));
+    }
+
+    /**
+     * 处理同一条带内合并后的消息 每个房源最多一条
+     * 连续的索引消息合并为一批加载 删除消息到达前先提交之前的索引批次以保持顺序
+     * @param messages
+     */
+    private void handleCoalescedMessages(List<HouseIndexMessage> messages) {
         try {
-            kafkaTemplate.send(INDEX_TOPIC,objectMapper.writeValueAsString(message));
-        } catch (JsonProcessingException e) {
-            logger.error("Json encode error for "+message);
+            List<HouseIndexMessage> indexMessages = new ArrayList<>();
+            for (HouseIndexMessage message : messages) {
+                if (HouseIndexMessage.REMOVE.equals(message.getOperation())) {
+                    this.createOrUpdateIndex(indexMessages);
+                    indexMessages.clear();
+                    this.removeIndex(message);
+                } else if (HouseIndexMessage.UPDATE.equals(message.getOperation())) {
+                    this.updateIndex(message);
+                } else {
+                    indexMessages.add(message);
+                }
+            }
+            this.createOrUpdateIndex(indexMessages);
+            // 每批消息处理完即提交 不必等待刷新间隔
+            bulkProcessor.flush();
+        } finally {
+            // 未加入批量写请求的消息(跳过、已转入重试或处理异常)到此处理完成 异常时由对账任务修复
+            messages.stream().filter(message -> !message.isQueued()).forEach(HouseIndexMessage::markDone);
+        }
+    }
+
+    /**
+     * 局部更新 跳过文档组装、地理编码与补全词生成
+     * 文档不存在时不创建 ES返回的404按成功处理
+     * 局部更新不支持外部版本 会使文档内部版本加一, 因此调用方需同时推进lastUpdateTime, 后续整体写入的外部版本才不会低于它
+     * 与并发的局部更新冲突时由ES重试
+     */
+    private void updateIndex(HouseIndexMessage message) {
+        if (message.getFields() == null || message.getFields().isEmpty()) {
+            return;
         }
+        bulkProcessor.add(new UpdateRequest(INDEX_ALIAS, INDEX_TYPE, String.valueOf(message.getHouseId()))
+                .doc(message.getFields())
+                .retryOnConflict(UPDATE_RETRY_ON_CONFLICT), message);
     }
 
-    private void createOrUpdateIndex(HouseIndexMessage message) {
+    private void removeIndex(HouseIndexMessage message) {
         Long houseId = message.getHouseId();
         House house = houseRepository.findOne(houseId);
-        if(house == null ){
-            logger.error("Index house {} dose not exist!",houseId);
-            this.index(houseId,message.getRetry()+1);
+        if (house != null && house.getStatus() == HouseStatus.PASSES.getValue()) {
+            // 房源已重新上架 删除消息已过期
+            logger.debug("Skip stale remove for house {}", houseId);
             return;
         }
 
-        HouseIndexTemplate indexTemplate = new HouseIndexTemplate();
-        modelMapper.map(house,indexTemplate);
-
-        HouseDetail detail = houseDetailRepository.findByHouseId(houseId);
-        if(detail==null){
-            //TODO 异常情况
+        long version = house == null ? 0 : house.getLastUpdateTime().getTime();
+        if (checkIdempotency(message) && indexIdempotency.isApplied(houseId, HouseIndexMessage.REMOVE, version)) {
+            logger.debug("Skip duplicate remove for house {}", houseId);
+            return;
+        }
+        message.setVersion(version);
+        if (house != null) {
+            message.setCityEnName(house.getCityEnName());
         }
-        modelMapper.map(detail,indexTemplate);
-
-        SupportAddress city = supportAddressRepository.findByEnNameAndLevel(house.getCityEnName(),
-                SupportAddress.Level.CITY.getValue());
-
-        SupportAddress region = supportAddressRepository.findByEnNameAndLevel(house.getRegionEnName(),
-                SupportAddress.Level.REGION.getValue());
-        String address = city.getEnName()+ region.getCnName()+house.getStreet()+house.getDistrict()
-                +detail.getDetailAddress();
-        ServiceResult<BaiduMapLocation> location  = addressService.getBaiduMapLocation(city.getCnName(),address);
 
-        if(!location.isSuccess()){
-            this.index(message.getHouseId(),message.getRetry()+1);
+        ServiceResult serviceResult = addressService.removeLbs(houseId);
+        if (!serviceResult.isSuccess()) {
+            logger.warn("Did not remove lbs data for house: " + houseId);
+            // 进入延迟重试
+            indexTransport.retry(message, "Remove lbs failed: " + serviceResult.getMessage());
             return;
         }
 
-        indexTemplate.setLocation(location.getResult());
-
-        List<HouseTag> tags = tagRepository.findAllByHouseId(houseId);
-        if(tags!=null&&!tags.isEmpty()){
-            List<String> tagStrings = new ArrayList<>();
-            tags.forEach(houseTag -> tagStrings.add(houseTag.getName()));
-            indexTemplate.setTags(tagStrings);
+        DeleteRequest deleteRequest = new DeleteRequest(INDEX_ALIAS, INDEX_TYPE, String.valueOf(houseId));
+        if (house != null) {
+            deleteRequest.version(version).versionType(VersionType.EXTERNAL_GTE);
         }
+        bulkProcessor.add(deleteRequest, message);
+    }
 
-        SearchRequestBuilder requestBuilder = this.esClient.prepareSearch(INDEX_NAME).setTypes(INDEX_TYPE)
-                .setQuery(QueryBuilders.termQuery(HouseIndexKey.HOUSE_ID,houseId));
-        logger.debug(requestBuilder.toString());
-        SearchResponse searchResponse = requestBuilder.get();
-        searchResponse.getSuccessfulShards();
-        boolean success = false;
-        long totalHit = searchResponse.getHits().getTotalHits();
-        if(totalHit ==0){
-            success = create(indexTemplate);
-        }else if(totalHit ==1){
-            String esId = searchResponse.getHits().getAt(0).getId();
-            success = update(esId,indexTemplate);
-        }else{
-            SearchHit[] sArr = searchResponse.getHits().getHits();
-            for(int i=0;i<sArr.length;i++){
-                success=deleteAndCreate(sArr[i].getId(),totalHit,indexTemplate);
-                if(!success){
-                    break;
+    private void createOrUpdateIndex(List<HouseIndexMessage> messages) {
+        if (messages.isEmpty()) {
+            return;
+        }
+        Map<Long, HouseIndexMessage> messageMap = new HashMap<>();
+        messages.forEach(message -> messageMap.put(message.getHouseId(), message));
+
+        Map<Long, House> houseMap = new HashMap<>();
+        houseRepository.findAll(messageMap.keySet()).forEach(house -> houseMap.put(house.getId(), house));
+
+        List<House> houses = new ArrayList<>();
+        Map<Long, Long> versions = new HashMap<>();
+        for (HouseIndexMessage message : messages) {
+            Long houseId = message.getHouseId();
+            House house = houseMap.get(houseId);
+            if (house == null) {
+                logger.error("Index house {} dose not exist!", houseId);
+                indexTransport.retry(message, "Index house " + houseId + " dose not exist!");
+            } else if (house.getStatus() != HouseStatus.PASSES.getValue()) {
+                // 房源已下架 索引消息已过期 删除由对应的删除消息完成
+                logger.debug("Skip stale index for house {}", houseId);
+            } else {
+                houses.add(house);
+                if (checkIdempotency(message)) {
+                    versions.put(houseId, house.getLastUpdateTime().getTime());
                 }
             }
         }
 
-        ServiceResult serviceResult = addressService.lbsUpload(location.getResult(),
-                house.getStreet()+house.getDistrict(),
-                city.getCnName()+region.getCnName()+house.getStreet()+house.getDistrict(),
-                message.getHouseId(),house.getPrice(),house.getArea());
-
-        if(!success||!serviceResult.isSuccess()){
-            this.index(message.getHouseId(),message.getRetry()+1);
-        }else {
-            logger.debug("Index success with house "+houseId);
+        // 相同版本已写入过的房源 跳过地理编码、LBS上传及ES写入
+        Set<Long> applied = indexIdempotency.findApplied(HouseIndexMessage.INDEX, versions);
+        if (!applied.isEmpty()) {
+            logger.debug("Skip duplicate index for houses {}", applied);
+            houses.removeIf(house -> applied.contains(house.getId()));
         }
 
+        Map<Long, ServiceResult<HouseIndexEnricher.EnrichedHouse>> results = indexEnricher.enrichHouses(houses);
+        results.forEach((houseId, enrichResult) -> {
+            HouseIndexMessage message = messageMap.get(houseId);
+            if (!enrichResult.isSuccess()) {
+                logger.warn(enrichResult.getMessage());
+                indexTransport.retry(message, enrichResult.getMessage());
+                return;
+            }
+            this.createOrUpdateIndex(message, enrichResult.getResult());
+        });
     }
 
+    private void createOrUpdateIndex(HouseIndexMessage message, HouseIndexEnricher.EnrichedHouse enriched) {
+        Long houseId = message.getHouseId();
+        House house = enriched.getHouse();
+        HouseIndexTemplate indexTemplate = enriched.getIndexTemplate();
 
-    @Override
-    public void index(Long houseId) {
-        this.index(houseId,0);
-    }
-
-    private void index(Long houseId, int retry) {
-        if(retry>HouseIndexMessage.MAX_RETRY){
-            logger.error("Retry index times over 3 for house: "+houseId+" Please check it!");
+        ServiceResult serviceResult = addressService.lbsUpload(indexTemplate.getLocation(),
+                house.getStreet()+house.getDistrict(),
+                enriched.getCity().getCnName()+enriched.getRegion().getCnName()+house.getStreet()+house.getDistrict(),
+                message.getHouseId(),house.getPrice(),house.getArea());
+        if (!serviceResult.isSuccess()) {
+            indexTransport.retry(message, "Upload lbs failed: " + serviceResult.getMessage());
             return;
         }
-        HouseIndexMessage message = new HouseIndexMessage(houseId,HouseIndexMessage.INDEX,retry);
-        try {
-            kafkaTemplate.send(INDEX_TOPIC,objectMapper.writeValueAsString(message));
-        } catch (JsonProcessingException e) {
-            logger.error("Json encode error for "+message);
-        }
-    }
 
-    private boolean create(HouseIndexTemplate indexTemplate) {
-        if (!updateSuggest(indexTemplate)) {
-            return false;
-        }
+        // 文档id即houseId 以更新时间为外部版本号写入 过期的快照由ES直接拒绝 无需先查询已有文档
+        message.setVersion(house.getLastUpdateTime().getTime());
+        message.setCityEnName(house.getCityEnName());
+        message.setSuggests(indexTemplate.getSuggest());
         try {
-            IndexResponse response = this.esClient.prepareIndex(INDEX_NAME, INDEX_TYPE)
-                    .setSource(objectMapper.writeValueAsBytes(indexTemplate)).get();
-
-            logger.debug("Create index with house: " + indexTemplate.getHouseId());
-            if (response.isCreated()) {
-                return true;
-            } else {
-                return false;
-            }
+            bulkProcessor.add(new IndexRequest(INDEX_ALIAS, INDEX_TYPE, String.valueOf(houseId))
+                    .source(objectMapper.writeValueAsBytes(indexTemplate))
+                    .version(house.getLastUpdateTime().getTime())
+                    .versionType(VersionType.EXTERNAL_GTE), message);
+            logger.debug("Queue index request with house " + houseId);
         } catch (JsonProcessingException e) {
-            logger.error("Error to index house " + indexTemplate.getHouseId(), e);
-            return false;
+            logger.error("Error to index house " + houseId, e);
+            indexTransport.retry(message, e.getMessage());
         }
     }
 
-    private boolean update(String esId, HouseIndexTemplate indexTemplate) {
 
-        if (!updateSuggest(indexTemplate)) {
-            return false;
-        }
-        try {
-            UpdateResponse response = this.esClient.prepareUpdate(INDEX_NAME, INDEX_TYPE, esId).setDoc(objectMapper.writeValueAsBytes(indexTemplate)).get();
+    /**
+     * 交互操作的消息可能因重复投递或重发而重复 需要做幂等判断
+     * 批量任务的消息来自对账、重建重放等修复场景 索引与记录可能已不一致 总是重新写入
+     */
+    private boolean checkIdempotency(HouseIndexMessage message) {
+        return message.getPriority() == IndexPriority.HIGH.getValue();
+    }
 
-            logger.debug("Update index with house: " + indexTemplate.getHouseId());
-            if (response.isCreated()) {
-                return true;
-            } else {
-                return false;
-            }
-        } catch (JsonProcessingException e) {
-            logger.error("Error to index house " + indexTemplate.getHouseId(), e);
-            return false;
-        }
+    /**
+     * 写入发件箱 调用方有事务时随房源变更一起提交 由投递任务异步发送
+     * @param houseId
+     */
+    @Override
+    public void index(Long houseId) {
+        index(houseId, IndexPriority.HIGH);
     }
 
-    private boolean deleteAndCreate(String esId,long totalHit, HouseIndexTemplate indexTemplate) {
+    @Override
+    public void index(Long houseId, IndexPriority priority) {
+        outboxRepository.save(new HouseIndexOutbox(houseId, HouseIndexMessage.INDEX, priority));
+    }
 
-        DeleteRequestBuilder deleteBuilder = this.esClient.prepareDelete(INDEX_NAME,INDEX_TYPE,esId);
+    @Override
+    public void remove(Long houseId) {
+        remove(houseId, IndexPriority.HIGH);
+    }
 
+    @Override
+    public void remove(Long houseId, IndexPriority priority) {
+        outboxRepository.save(new HouseIndexOutbox(houseId, HouseIndexMessage.REMOVE, priority));
+    }
 
-        logger.debug("Delete by query for house: " + deleteBuilder);
-        DeleteResponse response = deleteBuilder.get();
-        //Boolean deleted = response.isFound();
-        int total = response.getShardInfo().getTotal();
-        if (total<1) {
-            logger.warn("Need delete {}, but {} was deleted!", totalHit, total);
-            return false;
-        } else {
-            return create(indexTemplate);
+    @Override
+    public void update(Long houseId, Map<String, Object> fields) {
+        HouseIndexOutbox outbox = new HouseIndexOutbox(houseId, HouseIndexMessage.UPDATE, IndexPriority.HIGH);
+        try {
+            outbox.setFields(objectMapper.writeValueAsString(fields));
+        } catch (JsonProcessingException e) {
+            logger.error("Json encode error for fields of house " + houseId, e);
+            outbox.setOperation(HouseIndexMessage.INDEX);
         }
+        outboxRepository.save(outbox);
     }
 
-
     @Override
-    public void remove(Long houseId) {
-        this.remove(houseId,0);
+    public ServiceMultiResult<Long> query(RentSearch rentSearch) {
+        return EsAsyncExecutor.await(queryAsync(rentSearch));
     }
 
     @Override
-    public ServiceMultiResult<Long> query(RentSearch rentSearch) {
+    public CompletableFuture<ServiceMultiResult<Long>> queryAsync(RentSearch rentSearch) {
+        // 缓存key在查询前生成 查询期间该城市有写入或写入变为可见时结果不会再被命中
+        String cacheKey = searchCache.key(rentSearch);
+        ServiceMultiResult<Long> cached = searchCache.get(cacheKey);
+        if (cached != null) {
+            return CompletableFuture.completedFuture(cached);
+        }
+
         BoolQueryBuilder boolQuery = QueryBuilders.boolQuery();
 
         boolQuery.filter(QueryBuilders.termQuery(HouseIndexKey.CITY_EN_NAME,rentSearch.getCityEnName()));
@@ -366,44 +537,56 @@ public class SearchServiceImpl implements ISearchService {
                 HouseIndexKey.SUBWAY_STATION_NAME
         ));
 
-        SearchRequestBuilder requestBuilder = this.esClient.prepareSearch(INDEX_NAME)
+        String sortKey = HouseSort.getSortKey(rentSearch.getOrderBy());
+        SortOrder order = SortOrder.valueOf(rentSearch.getOrderDirection());
+        SearchRequestBuilder requestBuilder = this.esClient.prepareSearch(INDEX_ALIAS)
                 .setTypes(INDEX_TYPE)
                 .setQuery(boolQuery)
-                .addSort(HouseSort.getSortKey(rentSearch.getOrderBy()),
-                        SortOrder.valueOf(rentSearch.getOrderDirection()))
-                .setFrom(rentSearch.getStart())
-                .setSize(rentSearch.getSize())
-                .setFetchSource(HouseIndexKey.HOUSE_ID,null);
+                .setFetchSource(false);
+        boolean cursored = paginate(requestBuilder, sortKey, order, rentSearch.getCursor(), rentSearch.getStart(),
+                rentSearch.getSize());
 
         logger.debug(requestBuilder.toString());
 
-        List<Long> houseIds = new ArrayList<>();
-        SearchResponse response = requestBuilder.get();
-        if(response.status()!=RestStatus.OK){
-            logger.warn("Search status is no ok for "+requestBuilder);
-            return new ServiceMultiResult<>(0,houseIds);
-        }
-
-        for (SearchHit hit:response.getHits()) {
-            houseIds.add(Longs.tryParse(String.valueOf(hit.getSource().get(HouseIndexKey.HOUSE_ID))));
-        }
+        return esExecutor.execute(requestBuilder).thenApply(response -> {
+            if(response.status()!=RestStatus.OK){
+                logger.warn("Search status is no ok for "+requestBuilder);
+                return new ServiceMultiResult<>(0,new ArrayList<>());
+            }
 
-        return new ServiceMultiResult<>(response.getHits().totalHits(),houseIds);
+            ServiceMultiResult<Long> result = parseHouseIds(response, sortKey, order, rentSearch.getSize(), cursored);
+            searchCache.put(cacheKey, result);
+            return result;
+        });
     }
 
     @Override
     public ServiceResult<List<String>> suggest(String prefix) {
+        return EsAsyncExecutor.await(suggestAsync(prefix));
+    }
+
+    @Override
+    public CompletableFuture<ServiceResult<List<String>>> suggestAsync(String prefix) {
+        // 优先使用进程内前缀索引 尚未加载完成时查询ES
+        List<String> suggests = suggestIndex.lookup(prefix);
+        if (suggests != null) {
+            return CompletableFuture.completedFuture(ServiceResult.of(suggests));
+        }
+
         CompletionSuggestionBuilder suggestionBuilder = SuggestBuilders.completionSuggestion("autocomplete").field("suggest")
                 .text(prefix).size(5);//"autocomplete",
         SuggestBuilder suggestBuilder = new SuggestBuilder();
         suggestBuilder.addSuggestion(suggestionBuilder);
        // suggestBuilder.setText("autocomplete");
 
-        SearchRequestBuilder requestBuilder = this.esClient.prepareSearch(INDEX_NAME)
+        SearchRequestBuilder requestBuilder = this.esClient.prepareSearch(INDEX_ALIAS)
                 .setTypes(INDEX_TYPE)
                 .addSuggestion(suggestionBuilder);
         logger.debug(requestBuilder.toString());
-        SearchResponse response = requestBuilder.get();
+        return esExecutor.execute(requestBuilder).thenApply(this::parseSuggest);
+    }
+
+    private ServiceResult<List<String>> parseSuggest(SearchResponse response) {
         Suggest suggest = response.getSuggest();
         Suggest.Suggestion result = suggest.getSuggestion("autocomplete");
 
@@ -436,83 +619,111 @@ public class SearchServiceImpl implements ISearchService {
 
     @Override
     public ServiceResult<Long> aggregateDistrictHouse(String cityName, String regionEnName, String district) {
+        // 优先读取内存中的城市小区房源数 城市聚合失败时单独聚合该小区
+        Long count = districtCounts.count(cityName, regionEnName, district);
+        if (count != null) {
+            return ServiceResult.of(count);
+        }
+        return EsAsyncExecutor.await(aggregateDistrictHouseAsync(cityName, regionEnName, district));
+    }
+
+    @Override
+    public CompletableFuture<ServiceResult<Long>> aggregateDistrictHouseAsync(String cityName, String regionEnName,
+                                                                             String district) {
         BoolQueryBuilder boolQuery = QueryBuilders.boolQuery()
                 .filter(QueryBuilders.termQuery(HouseIndexKey.CITY_EN_NAME,cityName))
                 .filter(QueryBuilders.termQuery(HouseIndexKey.REGION_EN_NAME,regionEnName))
                 .filter(QueryBuilders.termQuery(HouseIndexKey.DISTRICT,district));
 
-        SearchRequestBuilder requestBuilder = this.esClient.prepareSearch(INDEX_NAME)
+        SearchRequestBuilder requestBuilder = this.esClient.prepareSearch(INDEX_ALIAS)
                 .setTypes(INDEX_TYPE)
                 .setQuery(boolQuery)
                 .addAggregation(AggregationBuilders.terms(HouseIndexKey.AGG_DISTRICT).field(HouseIndexKey.DISTRICT))
                 .setSize(0);
         logger.debug(requestBuilder.toString());
-        SearchResponse response = requestBuilder.get();
-        if(response.status()==RestStatus.OK){
-            Terms terms = response.getAggregations().get(HouseIndexKey.AGG_DISTRICT);
-            if(terms.getBuckets()!=null&&!terms.getBuckets().isEmpty()){
-                return ServiceResult.of(terms.getBucketByKey(district).getDocCount());
+        return esExecutor.execute(requestBuilder).thenApply(response -> {
+            if(response.status()==RestStatus.OK){
+                Terms terms = response.getAggregations().get(HouseIndexKey.AGG_DISTRICT);
+                if(terms.getBuckets()!=null&&!terms.getBuckets().isEmpty()){
+                    return ServiceResult.of(terms.getBucketByKey(district).getDocCount());
+                }
+            }else{
+                logger.warn("Failed to Aggregate for "+HouseIndexKey.AGG_DISTRICT);
             }
-        }else{
-            logger.warn("Failed to Aggregate for "+HouseIndexKey.AGG_DISTRICT);
-        }
 
-        return ServiceResult.of(0L);
+            return ServiceResult.of(0L);
+        });
     }
 
     @Override
     public ServiceMultiResult<HouseBucketDTO> mapAggregate(String cityEnName) {
+        return EsAsyncExecutor.await(mapAggregateAsync(cityEnName));
+    }
+
+    @Override
+    public CompletableFuture<ServiceMultiResult<HouseBucketDTO>> mapAggregateAsync(String cityEnName) {
         BoolQueryBuilder boolQuery = QueryBuilders.boolQuery();
         boolQuery.filter(QueryBuilders.termQuery(HouseIndexKey.CITY_EN_NAME,cityEnName));
 
         AggregationBuilder aggregationBuilder = AggregationBuilders.terms(HouseIndexKey.AGG_REGION)
                 .field(HouseIndexKey.REGION_EN_NAME);
-        SearchRequestBuilder requestBuilder = this.esClient.prepareSearch(INDEX_NAME).setTypes(INDEX_TYPE)
+        SearchRequestBuilder requestBuilder = this.esClient.prepareSearch(INDEX_ALIAS).setTypes(INDEX_TYPE)
                 .setQuery(boolQuery)
                 .addAggregation(aggregationBuilder);
 
         logger.debug(requestBuilder.toString());
         //TODO
-        SearchResponse response = requestBuilder.get();
-        List<HouseBucketDTO> bucketDTOS = new ArrayList<>();
-        if(response.status()!=RestStatus.OK){
-            logger.warn("Aggregate status is not ok for "+ requestBuilder);
-            return new ServiceMultiResult<>(0,bucketDTOS);
-        }
+        return esExecutor.execute(requestBuilder).thenApply(response -> {
+            List<HouseBucketDTO> bucketDTOS = new ArrayList<>();
+            if(response.status()!=RestStatus.OK){
+                logger.warn("Aggregate status is not ok for "+ requestBuilder);
+                return new ServiceMultiResult<>(0,bucketDTOS);
+            }
 
-        Terms terms = response.getAggregations().get(HouseIndexKey.AGG_REGION);
-        for (Terms.Bucket bucket : terms.getBuckets()) {
-            bucketDTOS.add(new HouseBucketDTO(bucket.getKeyAsString(),bucket.getDocCount()));
-        }
-        return new ServiceMultiResult<>(response.getHits().getTotalHits(),bucketDTOS);
+            Terms terms = response.getAggregations().get(HouseIndexKey.AGG_REGION);
+            for (Terms.Bucket bucket : terms.getBuckets()) {
+                bucketDTOS.add(new HouseBucketDTO(bucket.getKeyAsString(),bucket.getDocCount()));
+            }
+            return new ServiceMultiResult<>(response.getHits().getTotalHits(),bucketDTOS);
+        });
     }
 
     @Override
-    public ServiceMultiResult<Long> mapQuery(String cityEnName, String orderBy, String orderDirection, int start, int size) {
+    public ServiceMultiResult<Long> mapQuery(String cityEnName, String orderBy, String orderDirection, int start, int size,
+                                             String cursor) {
+        return EsAsyncExecutor.await(mapQueryAsync(cityEnName, orderBy, orderDirection, start, size, cursor));
+    }
+
+    @Override
+    public CompletableFuture<ServiceMultiResult<Long>> mapQueryAsync(String cityEnName, String orderBy,
+                                                                    String orderDirection, int start, int size,
+                                                                    String cursor) {
         BoolQueryBuilder boolQueryBuilder = QueryBuilders.boolQuery();
         boolQueryBuilder.filter(QueryBuilders.termQuery(HouseIndexKey.CITY_EN_NAME,cityEnName));
 
-        SearchRequestBuilder searchRequestBuilder = this.esClient.prepareSearch(INDEX_NAME)
+        String sortKey = HouseSort.getSortKey(orderBy);
+        SortOrder order = SortOrder.valueOf(orderDirection);
+        SearchRequestBuilder searchRequestBuilder = this.esClient.prepareSearch(INDEX_ALIAS)
                 .setTypes(INDEX_TYPE)
                 .setQuery(boolQueryBuilder)
-                .addSort(HouseSort.getSortKey(orderBy),SortOrder.valueOf(orderDirection))
-                .setFrom(start)
-                .setSize(size);
-        List<Long> houseIds = new ArrayList<>();
-        SearchResponse response = searchRequestBuilder.get();
-        if(response.status()!=RestStatus.OK){
-            logger.warn("Search status is not ok for "+ searchRequestBuilder);
-            return new ServiceMultiResult<>(0,houseIds);
-        }
-
-        for (SearchHit hit : response.getHits()) {
-            houseIds.add(Longs.tryParse(String.valueOf(hit.getSource().get(HouseIndexKey.HOUSE_ID))));
-        }
-        return new ServiceMultiResult<>(response.getHits().getTotalHits(),houseIds);
+                .setFetchSource(false);
+        boolean cursored = paginate(searchRequestBuilder, sortKey, order, cursor, start, size);
+        return esExecutor.execute(searchRequestBuilder).thenApply(response -> {
+            if(response.status()!=RestStatus.OK){
+                logger.warn("Search status is not ok for "+ searchRequestBuilder);
+                return new ServiceMultiResult<>(0,new ArrayList<>());
+            }
+            return parseHouseIds(response, sortKey, order, size, cursored);
+        });
     }
 
     @Override
     public ServiceMultiResult<Long> mapQuery(MapSearch mapSearch) {
+        return EsAsyncExecutor.await(mapQueryAsync(mapSearch));
+    }
+
+    @Override
+    public CompletableFuture<ServiceMultiResult<Long>> mapQueryAsync(MapSearch mapSearch) {
         BoolQueryBuilder boolQueryBuilder = QueryBuilders.boolQuery();
         boolQueryBuilder.filter(QueryBuilders.termQuery(HouseIndexKey.CITY_EN_NAME,mapSearch.getCityEnName()));
         boolQueryBuilder.filter(
@@ -521,57 +732,104 @@ public class SearchServiceImpl implements ISearchService {
                         .bottomRight(mapSearch.getRightLatitude(),mapSearch.getRightLongitude())
         );
 
-        SearchRequestBuilder searchRequestBuilder = this.esClient.prepareSearch(INDEX_NAME)
+        String sortKey = HouseSort.getSortKey(mapSearch.getOrderBy());
+        SortOrder order = SortOrder.valueOf(mapSearch.getOrderDirection());
+        SearchRequestBuilder searchRequestBuilder = this.esClient.prepareSearch(INDEX_ALIAS)
                 .setTypes(INDEX_TYPE)
                 .setQuery(boolQueryBuilder)
-                .addSort(HouseSort.getSortKey(mapSearch.getOrderBy()),SortOrder.valueOf(mapSearch.getOrderDirection()))
-                .setFrom(mapSearch.getStart())
-                .setSize(mapSearch.getSize());
-        List<Long> houseIds = new ArrayList<>();
-        SearchResponse response = searchRequestBuilder.get();
-        if(response.status()!=RestStatus.OK){
-            logger.warn("Search status is not ok for "+ searchRequestBuilder);
-            return new ServiceMultiResult<>(0,houseIds);
-        }
-        for (SearchHit hit : response.getHits()) {
-            houseIds.add(Longs.tryParse(String.valueOf(hit.getSource().get(HouseIndexKey.HOUSE_ID))));
-        }
-        return new ServiceMultiResult<>(response.getHits().getTotalHits(),houseIds);
-    }
-
-    private boolean updateSuggest(HouseIndexTemplate indexTemplate){
-        AnalyzeRequestBuilder requestBuilder= new AnalyzeRequestBuilder(this.esClient,AnalyzeAction.INSTANCE,INDEX_NAME,
-                indexTemplate.getTitle(),
-                indexTemplate.getLayoutDesc(),indexTemplate.getRoundService(),
-                indexTemplate.getDescription(),indexTemplate.getSubwayLineName(),
-                indexTemplate.getSubwayStationName());
-        requestBuilder.setAnalyzer("ik_smart");
-
-        AnalyzeResponse response = requestBuilder.get();
-        List<AnalyzeResponse.AnalyzeToken> tokens = response.getTokens();
-        if(tokens ==null){
-            logger.warn("Can not analyze token for house: "+indexTemplate.getHouseId());
+                .setFetchSource(false);
+        boolean cursored = paginate(searchRequestBuilder, sortKey, order, mapSearch.getCursor(),
+                mapSearch.getStart(), mapSearch.getSize());
+        return esExecutor.execute(searchRequestBuilder).thenApply(response -> {
+            if(response.status()!=RestStatus.OK){
+                logger.warn("Search status is not ok for "+ searchRequestBuilder);
+                return new ServiceMultiResult<>(0,new ArrayList<>());
+            }
+            return parseHouseIds(response, sortKey, order, mapSearch.getSize(), cursored);
+        });
+    }
+
+    /**
+     * 按排序字段排序 缺少排序字段的文档排在最后 houseId作为次级排序保证顺序唯一
+     * 游标有效时以post_filter过滤出排在游标之后的文档并从头取一页 与页码无关(等同search_after, 当前客户端版本不支持);
+     * 否则按起始位置分页. post_filter不影响聚合 以聚合统计未过滤的命中总数
+     * @return 是否按游标分页
+     * @throws IllegalArgumentException 游标无效或不是由当前排序方式生成
+     */
+    private boolean paginate(SearchRequestBuilder requestBuilder, String sortKey, SortOrder order, String cursor,
+                             int start, int size) {
+        requestBuilder.addSort(SortBuilders.fieldSort(sortKey).order(order).missing("_last"))
+                .addSort(HouseIndexKey.HOUSE_ID, order)
+                .setSize(size);
+
+        if (cursor == null) {
+            requestBuilder.setFrom(start);
             return false;
         }
+        SearchCursor after = SearchCursor.decode(cursor, sortKey, order.name());
 
-        List<HouseSuggest> suggests = new ArrayList<>();
-        for (AnalyzeResponse.AnalyzeToken token : tokens) {
-            // 排除数字类型 & 小于2个字符的分词结果
-            if("<NUM>".equals(token.getType())||token.getTerm().length()<2){
-                continue;
+        // (sortKey, houseId) 按排序方向严格位于游标之后
+        boolean desc = order == SortOrder.DESC;
+        RangeQueryBuilder afterHouseId = QueryBuilders.rangeQuery(HouseIndexKey.HOUSE_ID);
+        if (desc) {
+            afterHouseId.lt(after.getHouseId());
+        } else {
+            afterHouseId.gt(after.getHouseId());
+        }
+        QueryBuilder missingSortKey = QueryBuilders.boolQuery().mustNot(QueryBuilders.existsQuery(sortKey));
+
+        BoolQueryBuilder afterCursor = QueryBuilders.boolQuery().minimumNumberShouldMatch(1);
+        if (after.isMissing()) {
+            afterCursor.should(QueryBuilders.boolQuery().filter(missingSortKey).filter(afterHouseId));
+        } else {
+            RangeQueryBuilder afterSortKey = QueryBuilders.rangeQuery(sortKey);
+            if (desc) {
+                afterSortKey.lt(after.getSortValue());
+            } else {
+                afterSortKey.gt(after.getSortValue());
             }
+            afterCursor.should(afterSortKey)
+                    .should(QueryBuilders.boolQuery()
+                            .filter(QueryBuilders.termQuery(sortKey, after.getSortValue()))
+                            .filter(afterHouseId))
+                    .should(missingSortKey);
+        }
+        requestBuilder.setPostFilter(afterCursor)
+                .addAggregation(AggregationBuilders.filter(UNFILTERED_TOTAL_AGG).filter(QueryBuilders.matchAllQuery()))
+                .setFrom(0);
+        return true;
+    }
 
-            HouseSuggest suggest = new HouseSuggest();
-            suggest.setInput(token.getTerm());
-            suggests.add(suggest);
+    /**
+     * 解析命中的houseId 满页时以最后一条结果生成下一页游标
+     * 文档id即houseId 查询不加载_source 直接解析为long数组
+     * @param cursored 游标分页时命中数只包含游标之后的文档 总数取自未过滤的聚合
+     */
+    private ServiceMultiResult<Long> parseHouseIds(SearchResponse response, String sortKey, SortOrder order, int size,
+                                                   boolean cursored) {
+        SearchHit[] hits = response.getHits().getHits();
+        long[] houseIds = new long[hits.length];
+        int count = 0;
+        for (SearchHit hit : hits) {
+            try {
+                houseIds[count] = Long.parseLong(hit.getId());
+                count++;
+            } catch (NumberFormatException e) {
+                // 迁移前自动生成id的历史文档
+                logger.warn("Skip document {} whose id is not a houseId", hit.getId());
+            }
+        }
+        if (count < houseIds.length) {
+            houseIds = Arrays.copyOf(houseIds, count);
         }
-        // 定制化小区自动补全
-        HouseSuggest suggest = new HouseSuggest();
-        suggest.setInput(indexTemplate.getDistrict());
-        suggests.add(suggest);
 
-        indexTemplate.setSuggest(suggests);
-        return true;
+        long total = cursored ? ((Filter) response.getAggregations().get(UNFILTERED_TOTAL_AGG)).getDocCount()
+                : response.getHits().getTotalHits();
+        ServiceMultiResult<Long> result = new ServiceMultiResult<>(total, Longs.asList(houseIds));
+        if (hits.length > 0 && hits.length == size) {
+            result.setCursor(SearchCursor.encode(sortKey, order.name(), hits[hits.length - 1]));
+        }
+        return result;
     }
 
 }
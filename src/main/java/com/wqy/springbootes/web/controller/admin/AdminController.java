@@ -2,6 +2,7 @@ package com.wqy.springbootes.web.controller.admin;
 
 import java.io.*;
 import java.sql.Blob;
+import java.util.List;
 import java.util.Map;
 
 
@@ -9,9 +10,11 @@ import com.google.common.base.Strings;
 import com.sun.org.apache.xml.internal.security.utils.Base64;
 import com.wqy.springbootes.base.ApiDataTableResponse;
 import com.wqy.springbootes.base.ApiResponse;
+import com.wqy.springbootes.base.DeadLetterStatus;
 import com.wqy.springbootes.base.HouseOperation;
 import com.wqy.springbootes.base.HouseStatus;
 import com.wqy.springbootes.entity.House;
+import com.wqy.springbootes.entity.HouseIndexDeadLetter;
 import com.wqy.springbootes.entity.HousePicture;
 import com.wqy.springbootes.entity.SubwayStation;
 import com.wqy.springbootes.entity.SupportAddress;
@@ -20,6 +23,11 @@ import com.wqy.springbootes.service.ServiceMultiResult;
 import com.wqy.springbootes.service.ServiceResult;
 import com.wqy.springbootes.service.house.IAddressService;
 import com.wqy.springbootes.service.house.IHouseService;
+import com.wqy.springbootes.service.search.HouseReconcileJob;
+import com.wqy.springbootes.service.search.HouseReconcileReport;
+import com.wqy.springbootes.service.search.HouseReindexJob;
+import com.wqy.springbootes.service.search.HouseReindexProgress;
+import com.wqy.springbootes.service.search.IDeadLetterService;
 import com.wqy.springbootes.web.dto.*;
 import com.wqy.springbootes.web.form.DatatableSearch;
 import com.wqy.springbootes.web.form.HouseForm;
@@ -63,6 +71,15 @@ public class AdminController {
     @Autowired
     private IUserService userService;
 
+    @Autowired
+    private HouseReindexJob reindexJob;
+
+    @Autowired
+    private IDeadLetterService deadLetterService;
+
+    @Autowired
+    private HouseReconcileJob reconcileJob;
+
     /**
      * 后台管理中心
      * @return
@@ -453,6 +470,95 @@ public class AdminController {
         }
     }
 
+    /**
+     * 触发全量重建索引
+     * @return
+     */
+    @PostMapping("admin/search/reindex")
+    @ResponseBody
+    public ApiResponse reindex() {
+        ServiceResult<HouseReindexProgress> result = reindexJob.start();
+        if (result.isSuccess()) {
+            return ApiResponse.ofSuccess(result.getResult());
+        }
+        return ApiResponse.ofMessage(HttpStatus.BAD_REQUEST.value(), result.getMessage());
+    }
+
+    /**
+     * 查询重建索引进度
+     * @return
+     */
+    @GetMapping("admin/search/reindex")
+    @ResponseBody
+    public ApiResponse reindexProgress() {
+        HouseReindexProgress progress = reindexJob.getProgress();
+        if (progress == null) {
+            return ApiResponse.ofStatus(ApiResponse.Status.NOT_FOUND);
+        }
+        return ApiResponse.ofSuccess(progress);
+    }
+
+    /**
+     * 触发一次索引对账 结果通过GET查询
+     * @return
+     */
+    @PostMapping("admin/search/reconcile")
+    @ResponseBody
+    public ApiResponse reconcile() {
+        ServiceResult<HouseReconcileReport> result = reconcileJob.start();
+        if (result.isSuccess()) {
+            return ApiResponse.ofSuccess(result.getResult());
+        }
+        return ApiResponse.ofMessage(HttpStatus.BAD_REQUEST.value(), result.getMessage());
+    }
+
+    /**
+     * 查询最近一次对账结果 执行中时endTime为空
+     * @return
+     */
+    @GetMapping("admin/search/reconcile")
+    @ResponseBody
+    public ApiResponse reconcileReport() {
+        HouseReconcileReport report = reconcileJob.getLastReport();
+        if (report == null) {
+            return ApiResponse.ofStatus(ApiResponse.Status.NOT_FOUND);
+        }
+        return ApiResponse.ofSuccess(report);
+    }
+
+    /**
+     * 索引死信列表
+     * @return
+     */
+    @GetMapping("admin/search/dead-letters")
+    @ResponseBody
+    public ApiResponse deadLetters(@RequestParam(value = "draw") int draw,
+                                   @RequestParam(value = "start") int start,
+                                   @RequestParam(value = "length") int size,
+                                   @RequestParam(value = "status", required = false) Integer status) {
+        int value = status == null ? DeadLetterStatus.PENDING.getValue() : DeadLetterStatus.of(status).getValue();
+        ServiceMultiResult<HouseIndexDeadLetter> result = deadLetterService.list(value, start, size);
+
+        ApiDataTableResponse response = new ApiDataTableResponse(ApiResponse.Status.SUCCESS);
+        response.setData(result.getResult());
+        response.setDraw(draw);
+        response.setRecordsFiltered(result.getTotal());
+        response.setRecordsTotal(result.getTotal());
+        return response;
+    }
+
+    /**
+     * 重放索引死信 不指定id时重放全部待处理死信
+     * @param ids
+     * @return
+     */
+    @PostMapping("admin/search/dead-letters/replay")
+    @ResponseBody
+    public ApiResponse replayDeadLetters(@RequestParam(value = "ids", required = false) List<Long> ids) {
+        ServiceResult<Long> result = deadLetterService.replay(ids);
+        return ApiResponse.ofSuccess(result.getResult());
+    }
+
 
 
 
@@ -3,6 +3,7 @@ package com.wqy.springbootes.web.controller.house;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
 import javax.servlet.http.HttpSession;
 
@@ -56,13 +57,14 @@ public class HouseController {
      */
     @GetMapping("rent/house/autocomplete")
     @ResponseBody
-    public ApiResponse autocomplete(@RequestParam(value = "prefix") String prefix) {
+    public CompletableFuture<ApiResponse> autocomplete(@RequestParam(value = "prefix") String prefix) {
 
         if (prefix.isEmpty()) {
-            return ApiResponse.ofStatus(ApiResponse.Status.BAD_REQUEST);
+            return CompletableFuture.completedFuture(ApiResponse.ofStatus(ApiResponse.Status.BAD_REQUEST));
         }
-        ServiceResult<List<String>> result = this.searchService.suggest(prefix);
-        return ApiResponse.ofSuccess(result.getResult());
+        // 异步返回 等待ES响应期间不占用Tomcat线程
+        return this.searchService.suggestAsync(prefix)
+                .thenApply(result -> ApiResponse.ofSuccess(result.getResult()));
     }
 
     /**
@@ -157,10 +159,18 @@ public class HouseController {
             return "redirect:/index";
         }
 
-        ServiceMultiResult<HouseDTO> serviceMultiResult = houseService.query(rentSearch);
+        ServiceMultiResult<HouseDTO> serviceMultiResult;
+        try {
+            serviceMultiResult = houseService.query(rentSearch);
+        } catch (IllegalArgumentException e) {
+            // 游标无效或切换了排序方式 改按起始位置分页
+            rentSearch.setCursor(null);
+            serviceMultiResult = houseService.query(rentSearch);
+        }
 
         model.addAttribute("total",serviceMultiResult.getTotal());
         model.addAttribute("houses",serviceMultiResult.getResult());
+        model.addAttribute("nextCursor",serviceMultiResult.getCursor());
 
         if(rentSearch.getRegionEnName() ==null){
             rentSearch.setRegionEnName("*");
@@ -246,15 +256,21 @@ public class HouseController {
             return ApiResponse.ofMessage(HttpStatus.BAD_REQUEST.value(), "必须选择城市");
         }
         ServiceMultiResult<HouseDTO> serviceMultiResult;
-        if (mapSearch.getLevel() < 13) {
-            serviceMultiResult = houseService.wholeMapQuery(mapSearch);
-        } else {
-            // 小地图查询必须要传递地图边界参数
-            serviceMultiResult = houseService.boundMapQuery(mapSearch);
+        try {
+            if (mapSearch.getLevel() < 13) {
+                serviceMultiResult = houseService.wholeMapQuery(mapSearch);
+            } else {
+                // 小地图查询必须要传递地图边界参数
+                serviceMultiResult = houseService.boundMapQuery(mapSearch);
+            }
+        } catch (IllegalArgumentException e) {
+            return ApiResponse.ofMessage(HttpStatus.BAD_REQUEST.value(), "分页游标无效 请重新加载");
         }
 
         ApiResponse response = ApiResponse.ofSuccess(serviceMultiResult.getResult());
-        response.setMore(serviceMultiResult.getTotal() > (mapSearch.getStart() + mapSearch.getSize()));
+        // 游标分页时start不再代表实际位置 以是否返回了下一页游标判断
+        response.setMore(serviceMultiResult.getCursor() != null);
+        response.setCursor(serviceMultiResult.getCursor());
         return response;
 
     }
@@ -28,6 +28,11 @@ public class RentSearch {
 
     private int size = 5;
 
+    /**
+     * 上一页返回的游标 存在时从游标位置继续 忽略start
+     */
+    private String cursor;
+
     public String getCityEnName() {
         return cityEnName;
     }
@@ -58,6 +63,14 @@ public class RentSearch {
         this.size = size;
     }
 
+    public String getCursor() {
+        return cursor;
+    }
+
+    public void setCursor(String cursor) {
+        this.cursor = cursor;
+    }
+
     public String getRegionEnName() {
         return regionEnName;
     }
@@ -141,6 +154,7 @@ public class RentSearch {
                 ", orderDirection='" + orderDirection + '\'' +
                 ", start=" + start +
                 ", size=" + size +
+                ", cursor='" + cursor + '\'' +
                 '}';
     }
 }
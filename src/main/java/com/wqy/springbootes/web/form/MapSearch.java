@@ -26,6 +26,11 @@ public class MapSearch {
     private int start = 0;
     private int size = 5;
 
+    /**
+     * 上一页返回的游标 存在时从游标位置继续 忽略start
+     */
+    private String cursor;
+
     public String getCityEnName() {
         return cityEnName;
     }
@@ -105,4 +110,12 @@ public class MapSearch {
     public void setSize(int size) {
         this.size = size;
     }
+
+    public String getCursor() {
+        return cursor;
+    }
+
+    public void setCursor(String cursor) {
+        this.cursor = cursor;
+    }
 }
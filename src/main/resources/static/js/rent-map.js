@@ -233,6 +233,7 @@ function loadHouseData() {
     });
 
     $('#house-flow').html('');
+    var cursor = null; // 上一页返回的游标 加载更多时从该位置继续
     layui.use('flow', function () {
         var $ = layui.jquery; //不用额外加载jQuery，flow模块本身是有依赖jQuery的，直接用即可。
         var flow = layui.flow;
@@ -245,8 +246,13 @@ function loadHouseData() {
                     start = (page - 1) * 3;
 
                 var cityName = $('#cityEnName').val();
-                $.get('/rent/house/map/houses?cityEnName=' + cityName + '&start=' + start + '&size=3' + target,
+                var url = '/rent/house/map/houses?cityEnName=' + cityName + '&start=' + start + '&size=3' + target;
+                if (cursor) {
+                    url += 'cursor=' + cursor;
+                }
+                $.get(url,
                     function (res) {
+                        cursor = res.cursor;
                         if (res.code !== 200) {
                             lis.push('<li>数据加载错误</li>');
                         } else {
@@ -0,0 +1,119 @@
+package com.wqy.springbootes.service.house;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class SingleFlightTest {
+
+    private final SingleFlight<String> flight = new SingleFlight<>();
+
+    @Test
+    public void concurrentCallersShareOneExecution() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger executions = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Future<String> leader = executor.submit(() -> flight.execute("key", () -> {
+                executions.incrementAndGet();
+                started.countDown();
+                await(release);
+                return "result";
+            }));
+            Assert.assertTrue(started.await(5, TimeUnit.SECONDS));
+
+            Future<String> follower = executor.submit(() -> flight.execute("key", () -> {
+                executions.incrementAndGet();
+                return "other";
+            }));
+            // 留出时间让跟随者进入等待后再放行
+            Thread.sleep(100);
+            release.countDown();
+
+            Assert.assertEquals("result", leader.get(5, TimeUnit.SECONDS));
+            Assert.assertEquals("result", follower.get(5, TimeUnit.SECONDS));
+            Assert.assertEquals(1, executions.get());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void followerReceivesLeaderException() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Future<String> leader = executor.submit(() -> flight.execute("key", () -> {
+                started.countDown();
+                await(release);
+                throw new IllegalStateException("boom");
+            }));
+            Assert.assertTrue(started.await(5, TimeUnit.SECONDS));
+
+            Future<Throwable> follower = executor.submit(() -> {
+                try {
+                    flight.execute("key", () -> "other");
+                    return null;
+                } catch (RuntimeException e) {
+                    return e;
+                }
+            });
+            Thread.sleep(100);
+            release.countDown();
+
+            try {
+                leader.get(5, TimeUnit.SECONDS);
+                Assert.fail("Leader should fail");
+            } catch (ExecutionException e) {
+                Assert.assertTrue(e.getCause() instanceof IllegalStateException);
+            }
+            Throwable followerError = follower.get(5, TimeUnit.SECONDS);
+            Assert.assertTrue(followerError instanceof IllegalStateException);
+            Assert.assertEquals("boom", followerError.getMessage());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void keyIsReleasedAfterCompletion() {
+        Assert.assertEquals("first", flight.execute("key", () -> "first"));
+        Assert.assertEquals("second", flight.execute("key", () -> "second"));
+    }
+
+    @Test
+    public void keyIsReleasedAfterFailure() {
+        try {
+            flight.execute("key", () -> {
+                throw new IllegalStateException("boom");
+            });
+            Assert.fail("Loader exception should propagate");
+        } catch (IllegalStateException e) {
+            Assert.assertEquals("boom", e.getMessage());
+        }
+        Assert.assertEquals("retry", flight.execute("key", () -> "retry"));
+    }
+
+    @Test
+    public void differentKeysDoNotShare() {
+        Assert.assertEquals("a", flight.execute("a", () -> "a"));
+        Assert.assertEquals("b", flight.execute("b", () -> "b"));
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
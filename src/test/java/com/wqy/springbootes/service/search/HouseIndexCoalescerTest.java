@@ -0,0 +1,143 @@
+package com.wqy.springbootes.service.search;
+
+import com.wqy.springbootes.base.IndexPriority;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 窗口为0 每次提交后立即交付本批合并后的消息
+ */
+public class HouseIndexCoalescerTest {
+
+    private final HouseIndexCoalescer coalescer = new HouseIndexCoalescer();
+
+    private final List<List<HouseIndexMessage>> delivered = new ArrayList<>();
+
+    @Before
+    public void startCoalescer() {
+        coalescer.start(delivered::add);
+    }
+
+    @Test
+    public void updateDoesNotSupersedeIndex() {
+        HouseIndexMessage index = message(1L, HouseIndexMessage.INDEX);
+        submit(index, update(1L, "tags", "a"));
+        Assert.assertSame(index, single());
+    }
+
+    @Test
+    public void updateDoesNotSupersedeRemove() {
+        HouseIndexMessage remove = message(1L, HouseIndexMessage.REMOVE);
+        submit(remove, update(1L, "tags", "a"));
+        Assert.assertSame(remove, single());
+    }
+
+    @Test
+    public void indexAndRemoveSupersedePreviousOperation() {
+        HouseIndexMessage index = message(1L, HouseIndexMessage.INDEX);
+        submit(update(1L, "tags", "a"), message(1L, HouseIndexMessage.REMOVE), index);
+        Assert.assertSame(index, single());
+
+        delivered.clear();
+        HouseIndexMessage remove = message(1L, HouseIndexMessage.REMOVE);
+        submit(message(1L, HouseIndexMessage.INDEX), remove);
+        Assert.assertSame(remove, single());
+    }
+
+    @Test
+    public void consecutiveUpdatesMergeFields() {
+        HouseIndexMessage first = update(1L, "tags", "a");
+        first.getFields().put("title", "old");
+        submit(first, update(1L, "title", "new"));
+
+        HouseIndexMessage merged = single();
+        Assert.assertEquals(HouseIndexMessage.UPDATE, merged.getOperation());
+        Assert.assertEquals("a", merged.getFields().get("tags"));
+        Assert.assertEquals("new", merged.getFields().get("title"));
+    }
+
+    @Test
+    public void mergedMessageTakesHigherPriority() {
+        HouseIndexMessage low = message(1L, HouseIndexMessage.INDEX);
+        low.setPriority(IndexPriority.LOW.getValue());
+        HouseIndexMessage high = update(1L, "tags", "a");
+        submit(low, high);
+
+        HouseIndexMessage merged = single();
+        Assert.assertSame(low, merged);
+        Assert.assertEquals(IndexPriority.HIGH.getValue(), merged.getPriority());
+    }
+
+    @Test
+    public void differentHousesAreKeptInArrivalOrder() {
+        submit(message(1L, HouseIndexMessage.INDEX), message(2L, HouseIndexMessage.INDEX),
+                message(1L, HouseIndexMessage.REMOVE));
+
+        Assert.assertEquals(1, delivered.size());
+        List<HouseIndexMessage> batch = delivered.get(0);
+        Assert.assertEquals(2, batch.size());
+        Assert.assertEquals(Long.valueOf(2L), batch.get(0).getHouseId());
+        Assert.assertEquals(Long.valueOf(1L), batch.get(1).getHouseId());
+        Assert.assertEquals(HouseIndexMessage.REMOVE, batch.get(1).getOperation());
+    }
+
+    @Test
+    public void requeuedMessageIsOlderThanNewArrival() {
+        HouseIndexMessage remove = message(1L, HouseIndexMessage.REMOVE);
+        coalescer.requeue(Collections.singletonList(remove));
+        submit(update(1L, "tags", "a"));
+        Assert.assertSame(remove, single());
+
+        delivered.clear();
+        coalescer.requeue(Collections.singletonList(message(1L, HouseIndexMessage.REMOVE)));
+        HouseIndexMessage index = message(1L, HouseIndexMessage.INDEX);
+        submit(index);
+        Assert.assertSame(index, single());
+    }
+
+    @Test
+    public void absorbedMessagesCompleteWithMergedMessage() {
+        HouseIndexMessage index = message(1L, HouseIndexMessage.INDEX);
+        HouseIndexMessage update = update(1L, "tags", "a");
+        HouseIndexMessage reindex = message(1L, HouseIndexMessage.INDEX);
+        submit(index, update, reindex);
+
+        Assert.assertSame(reindex, single());
+        Assert.assertFalse(index.getDone().isDone());
+        Assert.assertFalse(update.getDone().isDone());
+
+        reindex.markDone();
+        Assert.assertTrue(index.getDone().isDone());
+        Assert.assertTrue(update.getDone().isDone());
+    }
+
+    private void submit(HouseIndexMessage... messages) {
+        coalescer.submit(Arrays.asList(messages));
+    }
+
+    private HouseIndexMessage single() {
+        Assert.assertEquals(1, delivered.size());
+        Assert.assertEquals(1, delivered.get(0).size());
+        return delivered.get(0).get(0);
+    }
+
+    private static HouseIndexMessage message(Long houseId, String operation) {
+        return new HouseIndexMessage(houseId, operation, 0);
+    }
+
+    private static HouseIndexMessage update(Long houseId, String field, Object value) {
+        HouseIndexMessage message = message(houseId, HouseIndexMessage.UPDATE);
+        Map<String, Object> fields = new HashMap<>();
+        fields.put(field, value);
+        message.setFields(fields);
+        return message;
+    }
+}
@@ -0,0 +1,211 @@
+package com.wqy.springbootes.service.search;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+public class HouseIndexJournalTest {
+
+    /**
+     * "t\nk\nm0" 6字节内容 + 8字节记录头
+     */
+    private static final int RECORD_SIZE = 14;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void peekDoesNotAdvanceUntilCommit() throws IOException {
+        HouseIndexJournal journal = new HouseIndexJournal(folder.getRoot().toPath(), 1024);
+        Assert.assertFalse(journal.hasPending());
+        Assert.assertNull(journal.peek());
+
+        journal.append("t", "k", "m0");
+        journal.append("t", "k", "m1");
+        Assert.assertTrue(journal.hasPending());
+
+        HouseIndexJournal.Record record = journal.peek();
+        Assert.assertEquals("t", record.getTopic());
+        Assert.assertEquals("k", record.getKey());
+        Assert.assertEquals("m0", record.getContent());
+        Assert.assertEquals("m0", journal.peek().getContent());
+
+        journal.commit(record);
+        Assert.assertEquals("m1", drainOne(journal));
+        Assert.assertNull(journal.peek());
+        Assert.assertFalse(journal.hasPending());
+        Assert.assertEquals(2, journal.getAppended());
+        Assert.assertEquals(2, journal.getDrained());
+    }
+
+    @Test
+    public void contentMayContainNewlines() throws IOException {
+        HouseIndexJournal journal = new HouseIndexJournal(folder.getRoot().toPath(), 1024);
+        journal.append("topic", "42", "{\"a\":1}\n{\"b\":2}");
+        HouseIndexJournal.Record record = journal.peek();
+        Assert.assertEquals("42", record.getKey());
+        Assert.assertEquals("{\"a\":1}\n{\"b\":2}", record.getContent());
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectRecordLargerThanSegment() throws IOException {
+        HouseIndexJournal journal = new HouseIndexJournal(folder.getRoot().toPath(), 32);
+        journal.append("t", "k", "a record that does not fit into one segment");
+    }
+
+    @Test
+    public void uncommittedRecordsSurviveRestart() throws IOException {
+        Path directory = folder.getRoot().toPath();
+        HouseIndexJournal journal = new HouseIndexJournal(directory, 1024);
+        journal.append("t", "k", "m0");
+        journal.append("t", "k", "m1");
+
+        HouseIndexJournal reopened = new HouseIndexJournal(directory, 1024);
+        Assert.assertEquals("m0", drainOne(reopened));
+        Assert.assertEquals("m1", drainOne(reopened));
+        Assert.assertNull(reopened.peek());
+    }
+
+    @Test
+    public void restartResumesFromLastCheckpoint() throws IOException {
+        Path directory = folder.getRoot().toPath();
+        HouseIndexJournal journal = new HouseIndexJournal(directory, 1 << 16);
+        for (int i = 0; i < 150; i++) {
+            journal.append("t", "k", "m" + i);
+        }
+        // 每100条写一次checkpoint 之后未写checkpoint的记录重启后会重复读取
+        for (int i = 0; i < 110; i++) {
+            drainOne(journal);
+        }
+
+        HouseIndexJournal reopened = new HouseIndexJournal(directory, 1 << 16);
+        Assert.assertEquals("m100", drainOne(reopened));
+    }
+
+    @Test
+    public void drainedJournalIsEmptyAfterRestart() throws IOException {
+        Path directory = folder.getRoot().toPath();
+        HouseIndexJournal journal = new HouseIndexJournal(directory, 1024);
+        journal.append("t", "k", "m0");
+        drainOne(journal);
+        // 读到末尾时写入checkpoint
+        Assert.assertNull(journal.peek());
+
+        HouseIndexJournal reopened = new HouseIndexJournal(directory, 1024);
+        Assert.assertFalse(reopened.hasPending());
+        Assert.assertNull(reopened.peek());
+    }
+
+    @Test
+    public void invalidCheckpointReadsFromFirstSegment() throws IOException {
+        Path directory = folder.getRoot().toPath();
+        HouseIndexJournal journal = new HouseIndexJournal(directory, 1024);
+        journal.append("t", "k", "m0");
+        Files.write(directory.resolve("checkpoint"), "garbage".getBytes(StandardCharsets.UTF_8));
+
+        HouseIndexJournal reopened = new HouseIndexJournal(directory, 1024);
+        Assert.assertEquals("m0", drainOne(reopened));
+    }
+
+    @Test
+    public void tornTailIsTruncatedOnRestart() throws IOException {
+        Path directory = folder.getRoot().toPath();
+        HouseIndexJournal journal = new HouseIndexJournal(directory, 1024);
+        journal.append("t", "k", "m0");
+        journal.append("t", "k", "m1");
+        // 崩溃时写了长度但内容与CRC不完整的记录
+        writeTornRecord(segment(directory, 0), 2 * RECORD_SIZE, "t\nk\nm2");
+
+        HouseIndexJournal reopened = new HouseIndexJournal(directory, 1024);
+        Assert.assertEquals("m0", drainOne(reopened));
+        Assert.assertEquals("m1", drainOne(reopened));
+        Assert.assertNull(reopened.peek());
+
+        // 新记录覆盖被截断的位置
+        reopened.append("t", "k", "m3");
+        Assert.assertEquals("m3", drainOne(reopened));
+        Assert.assertEquals(0, reopened.getCorrupted());
+    }
+
+    @Test
+    public void rotateAndDeleteFinishedSegments() throws IOException {
+        Path directory = folder.getRoot().toPath();
+        // 每个分段容纳4条记录
+        HouseIndexJournal journal = new HouseIndexJournal(directory, 4 * RECORD_SIZE + 8);
+        for (int i = 0; i < 6; i++) {
+            journal.append("t", "k", "m" + i);
+        }
+        Assert.assertEquals(2, journal.getSegments());
+
+        for (int i = 0; i < 6; i++) {
+            Assert.assertEquals("m" + i, drainOne(journal));
+        }
+        Assert.assertNull(journal.peek());
+        Assert.assertFalse(Files.exists(segment(directory, 0)));
+        Assert.assertEquals(1, journal.getSegments());
+    }
+
+    @Test
+    public void corruptedRecordSkipsRestOfSegment() throws IOException {
+        Path directory = folder.getRoot().toPath();
+        int segmentBytes = 4 * RECORD_SIZE + 8;
+        HouseIndexJournal journal = new HouseIndexJournal(directory, segmentBytes);
+        for (int i = 0; i < 5; i++) {
+            journal.append("t", "k", "m" + i);
+        }
+        // 已写满的第一个分段中第二条记录损坏
+        flipByte(segment(directory, 0), RECORD_SIZE + 8 + 5);
+
+        HouseIndexJournal reopened = new HouseIndexJournal(directory, segmentBytes);
+        Assert.assertEquals("m0", drainOne(reopened));
+        Assert.assertEquals("m4", drainOne(reopened));
+        Assert.assertEquals(1, reopened.getCorrupted());
+        Assert.assertFalse(Files.exists(segment(directory, 0)));
+    }
+
+    private static String drainOne(HouseIndexJournal journal) throws IOException {
+        HouseIndexJournal.Record record = journal.peek();
+        Assert.assertNotNull(record);
+        journal.commit(record);
+        return record.getContent();
+    }
+
+    private static Path segment(Path directory, long segment) {
+        return directory.resolve(String.format("%020d", segment) + ".journal");
+    }
+
+    /**
+     * 写入一条CRC不匹配的记录
+     */
+    private static void writeTornRecord(Path segment, int position, String payload) throws IOException {
+        byte[] bytes = payload.getBytes(StandardCharsets.UTF_8);
+        CRC32 crc = new CRC32();
+        crc.update(bytes);
+        ByteBuffer buffer = ByteBuffer.allocate(8 + bytes.length);
+        buffer.putInt(bytes.length).putInt(~(int) crc.getValue()).put(bytes);
+        buffer.flip();
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.WRITE)) {
+            channel.write(buffer, position);
+        }
+    }
+
+    private static void flipByte(Path segment, int position) throws IOException {
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            ByteBuffer buffer = ByteBuffer.allocate(1);
+            channel.read(buffer, position);
+            buffer.put(0, (byte) (buffer.get(0) ^ 0xFF));
+            buffer.rewind();
+            channel.write(buffer, position);
+        }
+    }
+}
@@ -0,0 +1,42 @@
+package com.wqy.springbootes.service.search;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class HouseIndexOwnersTest {
+
+    private final HouseIndexOwners<String> owners = new HouseIndexOwners<>();
+
+    @Test
+    public void idleHouseTakesPreferredLane() {
+        Assert.assertEquals("bulk", owners.claim(1L, "bulk"));
+        Assert.assertEquals("interactive", owners.claim(2L, "interactive"));
+    }
+
+    @Test
+    public void laterMessageFollowsPendingLane() {
+        owners.claim(1L, "bulk");
+        // 批量通道上还有未处理完的消息 交互操作的消息排在它之后
+        Assert.assertEquals("bulk", owners.claim(1L, "interactive"));
+    }
+
+    @Test
+    public void laneIsReleasedAfterLastPendingMessage() {
+        owners.claim(1L, "bulk");
+        owners.claim(1L, "interactive");
+
+        owners.release(1L);
+        Assert.assertEquals("bulk", owners.claim(1L, "interactive"));
+
+        owners.release(1L);
+        owners.release(1L);
+        Assert.assertEquals(0, owners.size());
+        Assert.assertEquals("interactive", owners.claim(1L, "interactive"));
+    }
+
+    @Test
+    public void releaseWithoutClaimIsIgnored() {
+        owners.release(1L);
+        Assert.assertEquals(0, owners.size());
+    }
+}
@@ -0,0 +1,81 @@
+package com.wqy.springbootes.service.search;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+public class SearchCursorTest {
+
+    @Test
+    public void decodeKeepsLongSortValue() {
+        String cursor = SearchCursor.encode("price", "DESC", new Object[]{3200L, 15L});
+        SearchCursor decoded = SearchCursor.decode(cursor, "price", "DESC");
+        Assert.assertEquals(3200L, decoded.getSortValue());
+        Assert.assertEquals(15L, decoded.getHouseId());
+        Assert.assertFalse(decoded.isMissing());
+    }
+
+    @Test
+    public void decodeKeepsDoubleAndStringSortValues() {
+        String cursor = SearchCursor.encode("area", "ASC", new Object[]{72.5D, 3L});
+        Assert.assertEquals(72.5D, SearchCursor.decode(cursor, "area", "ASC").getSortValue());
+
+        cursor = SearchCursor.encode("title", "ASC", new Object[]{"朝阳:两居", 3L});
+        Assert.assertEquals("朝阳:两居", SearchCursor.decode(cursor, "title", "ASC").getSortValue());
+    }
+
+    @Test
+    public void missingSortValueRoundTrips() {
+        String asc = SearchCursor.encode("distanceToSubway", "ASC", new Object[]{Long.MAX_VALUE, 8L});
+        Assert.assertTrue(SearchCursor.decode(asc, "distanceToSubway", "ASC").isMissing());
+
+        String desc = SearchCursor.encode("distanceToSubway", "DESC", new Object[]{Long.MIN_VALUE, 8L});
+        SearchCursor decoded = SearchCursor.decode(desc, "distanceToSubway", "DESC");
+        Assert.assertTrue(decoded.isMissing());
+        Assert.assertEquals(8L, decoded.getHouseId());
+    }
+
+    @Test
+    public void unsupportedSortValueHasNoCursor() {
+        Assert.assertNull(SearchCursor.encode("price", "ASC", new Object[]{new Object(), 1L}));
+        Assert.assertNull(SearchCursor.encode("price", "ASC", new Object[]{1L}));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectCursorOfAnotherSortKey() {
+        String cursor = SearchCursor.encode("price", "DESC", new Object[]{3200L, 15L});
+        SearchCursor.decode(cursor, "area", "DESC");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectCursorOfAnotherDirection() {
+        String cursor = SearchCursor.encode("price", "DESC", new Object[]{3200L, 15L});
+        SearchCursor.decode(cursor, "price", "ASC");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectInvalidBase64() {
+        SearchCursor.decode("not a cursor!", "price", "DESC");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectWrongPartCount() {
+        SearchCursor.decode(encode("price:DESC:L3200"), "price", "DESC");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectUnknownValueType() {
+        SearchCursor.decode(encode("price:DESC:X3200:15"), "price", "DESC");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectNonNumericHouseId() {
+        SearchCursor.decode(encode("price:DESC:L3200:abc"), "price", "DESC");
+    }
+
+    private static String encode(String text) {
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(text.getBytes(StandardCharsets.UTF_8));
+    }
+}
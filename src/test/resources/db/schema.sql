@@ -86,4 +86,31 @@ CREATE TABLE `house_tag` (
   `id` int(11) unsigned NOT NULL AUTO_INCREMENT COMMENT '标签id',
   `name` varchar(32) NOT NULL,
   PRIMARY KEY (`id`)
-);
\ No newline at end of file
+);
+
+DROP TABLE IF EXISTS `house_index_dead_letter`;
+CREATE TABLE `house_index_dead_letter` (
+  `id` int(11) NOT NULL IDENTITY,
+  `house_id` int(11) NOT NULL,
+  `operation` varchar(16) NOT NULL,
+  `retry` int(4) NOT NULL DEFAULT '0',
+  `reason` varchar(512) DEFAULT NULL,
+  `status` int(2) NOT NULL DEFAULT '0',
+  `first_failed_time` datetime NOT NULL,
+  `create_time` datetime NOT NULL,
+  `replay_time` datetime DEFAULT NULL,
+  PRIMARY KEY (`id`)
+);
+
+DROP TABLE IF EXISTS `house_index_outbox`;
+CREATE TABLE `house_index_outbox` (
+  `id` int(11) NOT NULL IDENTITY,
+  `house_id` int(11) NOT NULL,
+  `operation` varchar(16) NOT NULL,
+  `fields` varchar(2048) DEFAULT NULL,
+  `priority` int(2) NOT NULL DEFAULT '0',
+  `status` int(2) NOT NULL DEFAULT '0',
+  `create_time` datetime NOT NULL,
+  `deliver_time` datetime DEFAULT NULL,
+  PRIMARY KEY (`id`)
+);